@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import javax.crypto.Mac;
+
+/** Builds valid signatures for benchmarks, so they do not depend on live AdScore traffic */
+final class BenchmarkSignatures {
+
+  static final String KEY = "benchmark_zone_key";
+  static final String USER_AGENT =
+      "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) "
+          + "Chrome/65.0.3325.181 Safari/537.36";
+
+  private BenchmarkSignatures() {}
+
+  /** @return base64 encoded v4 signature with customer ip4 and ip6 tokens */
+  static String v4(String verdict, int time, String ipV4, String ipV6) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(4);
+    out.write(6);
+    writeUlong(out, 0x00, time);
+    writeUlong(out, 0x01, time);
+    out.write(0x81);
+    out.write(1);
+    writeString(out, 0xC1, token(verdict, time, ipV4));
+    writeString(out, 0xC3, token(verdict, time, ipV6));
+    writeString(out, 0xC0, new byte[32]);
+
+    return toBase64(out.toByteArray());
+  }
+
+  /** @return base64 encoded v3 signature with customer token */
+  static String v3(String verdict, int time, String ipV4) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(3);
+    writeInt(out, time);
+    writeInt(out, time);
+    out.write(1);
+    writeShort(out, 32);
+    out.write(new byte[32]);
+    out.write(1);
+    byte[] token = token(verdict, time, ipV4);
+    writeShort(out, token.length);
+    out.write(token);
+
+    return toBase64(out.toByteArray());
+  }
+
+  private static byte[] token(String verdict, int time, String ipAddress) throws Exception {
+    Mac mac = SignatureVerifierUtils.createMac(KEY.getBytes(StandardCharsets.ISO_8859_1));
+    String base = verdict + "\n" + time + "\n" + time + "\n" + ipAddress + "\n" + USER_AGENT;
+    return mac.doFinal(base.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void writeUlong(ByteArrayOutputStream out, int fieldId, int value) {
+    out.write(fieldId);
+    writeInt(out, value);
+  }
+
+  private static void writeString(ByteArrayOutputStream out, int fieldId, byte[] value) {
+    out.write(fieldId);
+    writeShort(out, value.length);
+    out.write(value, 0, value.length);
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value) {
+    writeShort(out, value >>> 16);
+    writeShort(out, value);
+  }
+
+  private static void writeShort(ByteArrayOutputStream out, int value) {
+    out.write((value >>> 8) & 0xFF);
+    out.write(value & 0xFF);
+  }
+
+  private static String toBase64(byte[] signature) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Hashing of signature base, one-off (with HMAC setup) and with reused per-thread state */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+
+  private String base;
+  private SignatureBase signatureBase;
+  private ByteSlice token;
+
+  @Setup
+  public void setUp() throws Exception {
+    base = "0\n1600000000\n1600000000\n73.109.57.137\n" + BenchmarkSignatures.USER_AGENT;
+    signatureBase =
+        new SignatureBase(
+            SignatureVerifierUtils.createMac(
+                BenchmarkSignatures.KEY.getBytes(StandardCharsets.ISO_8859_1)));
+    signatureBase.reset(1600000000, 1600000000, BenchmarkSignatures.USER_AGENT);
+    signatureBase.setIpAddress("73.109.57.137");
+    token = ByteSlice.EMPTY;
+  }
+
+  /** HMAC as computed originally for every candidate: new Mac and token as Latin-1 string */
+  @Benchmark
+  public String encode() throws Exception {
+    Mac mac =
+        SignatureVerifierUtils.createMac(
+            BenchmarkSignatures.KEY.getBytes(StandardCharsets.ISO_8859_1));
+    byte[] digest = mac.doFinal(base.getBytes(StandardCharsets.UTF_8));
+    return new String(digest, StandardCharsets.ISO_8859_1);
+  }
+
+  @Benchmark
+  public boolean signatureBaseMatches() {
+    return signatureBase.matches('0', token);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding steps: base64, v4 (all roles or customer only) and v3 field parsing, header unpacking
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+  private String signature;
+  private byte[] decodedV4;
+  private byte[] decodedV3;
+
+  @Setup
+  public void setUp() throws Exception {
+    signature = BenchmarkSignatures.v4("0", 1600000000, "73.109.57.137", "2001:db8::1");
+    decodedV4 = SignatureVerifierUtils.fromBase64(signature);
+    decodedV3 =
+        SignatureVerifierUtils.fromBase64(BenchmarkSignatures.v3("0", 1600000000, "73.109.57.137"));
+  }
+
+  @Benchmark
+  public byte[] fromBase64() {
+    return SignatureVerifierUtils.fromBase64(signature);
+  }
+
+  @Benchmark
+  public DecodedSignature parse4() throws BaseSignatureVerificationException {
+    return SignatureVerifierService.parse4(decodedV4);
+  }
+
+  @Benchmark
+  public DecodedSignature parse4Customer() throws BaseSignatureVerificationException {
+    return SignatureVerifierService.parse4(decodedV4, DecodedSignature.CUSTOMER);
+  }
+
+  @Benchmark
+  public DecodedSignature parse3() throws BaseSignatureVerificationException {
+    return SignatureVerifierService.parse3(decodedV3);
+  }
+
+  @Benchmark
+  public UnpackResult unpack() {
+    return Unpacker.unpack("Cversion/CfieldNum", new SignatureReader(decodedV4));
+  }
+}
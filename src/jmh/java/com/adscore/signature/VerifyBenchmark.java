@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end verification. Matching address is always the last of the candidates and half of the
+ * candidates are ip6, so fixed order covers the worst case for given number of addresses, while
+ * adaptive order learns the matching position and verdict and usually needs a single HMAC.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VerifyBenchmark {
+
+  @Param({"1", "4", "16"})
+  public int ipCount;
+
+  @Param({"0", "3", "6", "9"})
+  public String verdict;
+
+  private String signature;
+  private String[] ipAddresses;
+  private ZoneVerifier zoneVerifier;
+  private ZoneVerifier adaptiveZoneVerifier;
+
+  @Setup
+  public void setUp() throws Exception {
+    int time = (int) (System.currentTimeMillis() / 1000);
+    String matchingIp = "73.109.57.137";
+
+    signature = BenchmarkSignatures.v4(verdict, time, matchingIp, "2001:db8::1");
+    ipAddresses = new String[ipCount];
+    for (int i = 0; i < ipCount - 1; i++) {
+      ipAddresses[i] = i % 2 == 0 ? "10.0.0." + i : "2001:db8::" + Integer.toHexString(i + 2);
+    }
+    ipAddresses[ipCount - 1] = matchingIp;
+
+    zoneVerifier = new ZoneVerifier("customer", BenchmarkSignatures.KEY, false, null);
+    adaptiveZoneVerifier = zoneVerifier.withAdaptiveOrder();
+  }
+
+  @Benchmark
+  public SignatureVerificationResult staticVerify() {
+    return SignatureVerifier.verify(
+        signature,
+        BenchmarkSignatures.USER_AGENT,
+        "customer",
+        BenchmarkSignatures.KEY,
+        false,
+        (Integer) null,
+        ipAddresses);
+  }
+
+  @Benchmark
+  public SignatureVerificationResult zoneVerifier() {
+    return zoneVerifier.verify(signature, BenchmarkSignatures.USER_AGENT, ipAddresses);
+  }
+
+  @Benchmark
+  public SignatureVerificationResult adaptiveZoneVerifier() {
+    return adaptiveZoneVerifier.verify(signature, BenchmarkSignatures.USER_AGENT, ipAddresses);
+  }
+}
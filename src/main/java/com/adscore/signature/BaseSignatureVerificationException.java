@@ -24,10 +24,47 @@
 
 package com.adscore.signature;
 
-/** @author Łukasz Hyła <lhyla@iterative.pl> */
+/**
+ * Internal signal of failed verification, converted into error code of the result. It never fills
+ * stack trace and builds message only when asked for, so failing is as cheap as succeeding.
+ * Instances without details are immutable and can be preallocated and thrown repeatedly.
+ *
+ * @author Łukasz Hyła <lhyla@iterative.pl>
+ */
 abstract class BaseSignatureVerificationException extends Exception {
 
-  BaseSignatureVerificationException(String s) {
-    super(s);
+  private final SignatureVerificationError code;
+  private final String detailFormat;
+  private final Object[] detailArgs;
+
+  /**
+   * @param code error code
+   * @param detailFormat format of details appended to message of the code, null if none
+   * @param detailArgs arguments of detail format
+   */
+  BaseSignatureVerificationException(
+      SignatureVerificationError code, String detailFormat, Object... detailArgs) {
+    super(null, null, false, false);
+    this.code = code;
+    this.detailFormat = detailFormat;
+    this.detailArgs = detailArgs;
+  }
+
+  SignatureVerificationError getCode() {
+    return code;
+  }
+
+  /** @return true if message contains details besides message of the code */
+  boolean hasDetails() {
+    return detailFormat != null;
+  }
+
+  @Override
+  public String getMessage() {
+    if (detailFormat == null) {
+      return code.getMessage();
+    }
+
+    return code.getMessage() + String.format(detailFormat, detailArgs);
   }
 }
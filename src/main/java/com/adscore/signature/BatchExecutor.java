@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Splits batch of verification requests into chunks and verifies them in parallel. Each chunk is
+ * processed by a single task, so crypto state kept by the worker thread is reused for the whole
+ * chunk.
+ */
+final class BatchExecutor {
+
+  /** Chunks per available processor, more than one to even out chunks of different cost */
+  private static final int CHUNKS_PER_PROCESSOR = 4;
+
+  private BatchExecutor() {}
+
+  /**
+   * @param verifier verifier used to verify each of the requests
+   * @param requests requests to verify
+   * @param executor executor running chunks of the batch
+   * @return results in the same order as requests
+   */
+  static List<SignatureVerificationResult> verifyAll(
+      ZoneVerifier verifier, Collection<VerificationRequest> requests, Executor executor) {
+    VerificationRequest[] items = requests.toArray(new VerificationRequest[0]);
+    SignatureVerificationResult[] results = new SignatureVerificationResult[items.length];
+
+    int chunks =
+        Math.min(items.length, Runtime.getRuntime().availableProcessors() * CHUNKS_PER_PROCESSOR);
+
+    if (chunks <= 1) {
+      verifyRange(verifier, items, results, 0, items.length);
+      return Arrays.asList(results);
+    }
+
+    List<CompletableFuture<Void>> futures = new ArrayList<>(chunks);
+    for (int chunk = 0; chunk < chunks; chunk++) {
+      int from = (int) ((long) items.length * chunk / chunks);
+      int to = (int) ((long) items.length * (chunk + 1) / chunks);
+
+      futures.add(
+          CompletableFuture.runAsync(
+              () -> verifyRange(verifier, items, results, from, to), executor));
+    }
+
+    try {
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    } catch (CompletionException exp) {
+      if (exp.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) exp.getCause();
+      }
+      if (exp.getCause() instanceof Error) {
+        throw (Error) exp.getCause();
+      }
+      throw exp;
+    }
+
+    return Arrays.asList(results);
+  }
+
+  private static void verifyRange(
+      ZoneVerifier verifier,
+      VerificationRequest[] items,
+      SignatureVerificationResult[] results,
+      int from,
+      int to) {
+    for (int i = from; i < to; i++) {
+      VerificationRequest item = items[i];
+      results[i] = verifier.verify(item.getSignature(), item.getUserAgent(), item.ipAddresses());
+    }
+  }
+}
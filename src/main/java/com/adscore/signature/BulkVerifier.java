@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Re-verifies signatures logged in a file, e.g. to re-score historical traffic. Input is a tab
+ * separated file, one row per line:
+ *
+ * <pre>
+ * signature \t userAgent \t ipAddresses \t timestamp
+ * </pre>
+ *
+ * where ipAddresses are separated with commas and timestamp is unix time (in seconds) the row was
+ * logged at. Expiry of each signature is checked against its timestamp, not against current time.
+ *
+ * <p>File is memory mapped and verified in chunks in parallel. Columns are verified in place, as
+ * views of the mapped file, without copying rows into strings. For each input line single line is
+ * written to output, in the same order:
+ *
+ * <pre>
+ * outcome \t detail
+ * </pre>
+ *
+ * where outcome is a verdict (with matched ip address as detail), "expired" or "error" (with error
+ * message as detail). Ip addresses of each row are tried in given order, so output depends only on
+ * the input.
+ */
+public final class BulkVerifier {
+
+  /** Nominal size of a chunk, actual chunks end at the first line end after it */
+  private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+  /** Chunks being verified or waiting to be written, per available processor */
+  private static final int CHUNKS_IN_FLIGHT_PER_PROCESSOR = 2;
+
+  private static final byte COLUMN_SEPARATOR = '\t';
+  private static final CharSequence[] NO_ADDRESSES = new CharSequence[0];
+
+  private final SignatureVerifierService service;
+
+  /** @param verifier verifier of the zone signatures were issued for, its cache is not used */
+  public BulkVerifier(ZoneVerifier verifier) {
+    this.service = verifier.service().withFixedPositions();
+  }
+
+  /**
+   * Verifies all rows of the input using common fork-join pool, or virtual threads on Java 21+.
+   *
+   * @param input file with logged signatures
+   * @param output file verification results are written to, overwritten if exists
+   * @return number of rows per outcome: verdict, "expired", code of the error or "malformed row"
+   * @throws IOException when input cannot be read or output cannot be written
+   */
+  public Map<String, Long> verify(Path input, Path output) throws IOException {
+    return verify(input, output, DefaultExecutors.forBatches());
+  }
+
+  /**
+   * Verifies all rows of the input.
+   *
+   * @param input file with logged signatures
+   * @param output file verification results are written to, overwritten if exists
+   * @param executor executor verifying chunks of the input
+   * @return number of rows per outcome: verdict, "expired", code of the error or "malformed row"
+   * @throws IOException when input cannot be read or output cannot be written
+   */
+  public Map<String, Long> verify(Path input, Path output, Executor executor) throws IOException {
+    int maxInFlight = Runtime.getRuntime().availableProcessors() * CHUNKS_IN_FLIGHT_PER_PROCESSOR;
+    Map<String, Long> summary = new TreeMap<>();
+
+    try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ);
+        OutputStream out = Files.newOutputStream(output)) {
+      long size = channel.size();
+      ArrayDeque<CompletableFuture<Chunk>> inFlight = new ArrayDeque<>();
+
+      long start = 0;
+      while (start < size) {
+        long end = chunkEnd(channel, start, size);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        inFlight.add(CompletableFuture.supplyAsync(() -> verifyChunk(buffer), executor));
+        start = end;
+
+        if (inFlight.size() >= maxInFlight) {
+          write(inFlight.poll(), out, summary);
+        }
+      }
+
+      while (!inFlight.isEmpty()) {
+        write(inFlight.poll(), out, summary);
+      }
+    }
+
+    return Collections.unmodifiableMap(summary);
+  }
+
+  /** @return position just after the first line end following nominal end of the chunk */
+  private static long chunkEnd(FileChannel channel, long start, long size) throws IOException {
+    long position = start + CHUNK_SIZE;
+    ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+    while (position < size) {
+      buffer.clear();
+      int read = channel.read(buffer, position);
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n') {
+          long end = position + i + 1;
+          if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("row too long at offset " + start);
+          }
+          return end;
+        }
+      }
+      position += read;
+    }
+
+    return size;
+  }
+
+  private static void write(
+      CompletableFuture<Chunk> future, OutputStream out, Map<String, Long> summary)
+      throws IOException {
+    Chunk chunk;
+    try {
+      chunk = future.join();
+    } catch (CompletionException exp) {
+      if (exp.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) exp.getCause();
+      }
+      throw exp;
+    }
+
+    out.write(chunk.output.toString().getBytes(StandardCharsets.UTF_8));
+    chunk.counts.forEach((outcome, count) -> summary.merge(outcome, count, Long::sum));
+  }
+
+  private Chunk verifyChunk(ByteBuffer buffer) {
+    Chunk chunk = new Chunk();
+    int limit = buffer.limit();
+
+    int start = buffer.position();
+    while (start < limit) {
+      int end = indexOf(buffer, (byte) '\n', start, limit);
+      int next = end + 1;
+      if (end > start && buffer.get(end - 1) == '\r') {
+        end--;
+      }
+
+      verifyRow(buffer, start, end, chunk);
+      start = next;
+    }
+
+    return chunk;
+  }
+
+  /**
+   * Verifies row given as range of the mapped buffer. Columns are passed to the verifier as views
+   * of the buffer, so they are neither copied nor decoded into strings.
+   */
+  private void verifyRow(ByteBuffer buffer, int start, int end, Chunk chunk) {
+    int userAgent = indexOf(buffer, COLUMN_SEPARATOR, start, end) + 1;
+    int addresses = indexOf(buffer, COLUMN_SEPARATOR, userAgent, end) + 1;
+    int timestamp = indexOf(buffer, COLUMN_SEPARATOR, addresses, end) + 1;
+
+    long time = -1;
+    if (timestamp <= end && indexOf(buffer, COLUMN_SEPARATOR, timestamp, end) == end) {
+      time = parseTimestamp(buffer, timestamp, end);
+    }
+    if (time < 0) {
+      chunk.add("malformed row", "error", "malformed row");
+      return;
+    }
+
+    SignatureVerificationResult result =
+        service.verifySignature(
+            new ByteSequence(buffer, start, userAgent - 1 - start),
+            new ByteSequence(buffer, userAgent, addresses - 1 - userAgent),
+            parseAddresses(buffer, addresses, timestamp - 1),
+            time);
+
+    if (result.getVerdict() != null) {
+      chunk.add(result.getVerdict(), result.getVerdict(), result.getIpAddress());
+    } else if (result.isExpired()) {
+      chunk.add("expired", "expired", "");
+    } else {
+      chunk.add(result.getErrorCode().name(), "error", result.getError());
+    }
+  }
+
+  /** @return index of the first occurrence of value in given range, end if there is none */
+  private static int indexOf(ByteBuffer buffer, byte value, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (buffer.get(i) == value) {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Splits comma separated addresses the same way as {@link String#split(String)} followed by
+   * {@link String#trim()} would, dropping trailing empty addresses
+   */
+  private static CharSequence[] parseAddresses(ByteBuffer buffer, int start, int end) {
+    if (start == end) {
+      return NO_ADDRESSES;
+    }
+
+    int count = 0;
+    int pieces = 0;
+    for (int pieceStart = start; pieceStart <= end; ) {
+      int pieceEnd = indexOf(buffer, (byte) ',', pieceStart, end);
+      pieces++;
+      if (pieceEnd > pieceStart) {
+        count = pieces;
+      }
+      pieceStart = pieceEnd + 1;
+    }
+
+    CharSequence[] addresses = new CharSequence[count];
+    int pieceStart = start;
+    for (int i = 0; i < count; i++) {
+      int pieceEnd = indexOf(buffer, (byte) ',', pieceStart, end);
+      addresses[i] = trimmed(buffer, pieceStart, pieceEnd);
+      pieceStart = pieceEnd + 1;
+    }
+    return addresses;
+  }
+
+  /** @return view of the range without leading and trailing control characters and spaces */
+  private static CharSequence trimmed(ByteBuffer buffer, int start, int end) {
+    while (start < end && (buffer.get(start) & 0xFF) <= ' ') {
+      start++;
+    }
+    while (end > start && (buffer.get(end - 1) & 0xFF) <= ' ') {
+      end--;
+    }
+    return new ByteSequence(buffer, start, end - start);
+  }
+
+  /** @return timestamp or -1 if range does not hold a valid one */
+  private static long parseTimestamp(ByteBuffer buffer, int start, int end) {
+    if (start == end || end - start > 18) {
+      return -1;
+    }
+
+    long timestamp = 0;
+    for (int i = start; i < end; i++) {
+      byte b = buffer.get(i);
+      if (b < '0' || b > '9') {
+        return -1;
+      }
+      timestamp = timestamp * 10 + (b - '0');
+    }
+    return timestamp;
+  }
+
+  /**
+   * Usage: {@code BulkVerifier signRole base64Key expiry|- input output}, where "-" as expiry
+   * disables expiry check. Summary is printed to standard output.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 5) {
+      System.err.println("Usage: BulkVerifier signRole base64Key expiry|- input output");
+      System.exit(2);
+    }
+
+    Integer expiry = "-".equals(args[2]) ? null : Integer.valueOf(args[2]);
+    BulkVerifier verifier = new BulkVerifier(new ZoneVerifier(args[0], args[1], true, expiry));
+
+    long start = System.nanoTime();
+    Map<String, Long> summary = verifier.verify(Paths.get(args[3]), Paths.get(args[4]));
+    long millis = (System.nanoTime() - start) / 1_000_000;
+
+    long rows = 0;
+    for (Map.Entry<String, Long> entry : summary.entrySet()) {
+      System.out.println(entry.getKey() + "\t" + entry.getValue());
+      rows += entry.getValue();
+    }
+    System.out.println(String.format("%d rows verified in %d ms", rows, millis));
+  }
+
+  /** Output and counts of single chunk, kept separately to write chunks in input order */
+  private static final class Chunk {
+
+    private final StringBuilder output = new StringBuilder();
+    private final Map<String, Long> counts = new HashMap<>();
+
+    private void add(String countAs, String outcome, String detail) {
+      output.append(outcome).append('\t').append(detail).append('\n');
+      counts.merge(countAs, 1L, Long::sum);
+    }
+  }
+}
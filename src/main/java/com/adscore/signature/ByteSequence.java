@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read-only view of remaining bytes of a buffer as characters, one byte per character (ISO-8859-1),
+ * so ascii inputs such as signatures and ip addresses can be processed without copying them into
+ * strings. Position of the buffer is not changed.
+ *
+ * <p>User agent passed as this view is hashed as raw bytes by {@link SignatureBase}, so UTF-8
+ * encoded user agent gives the same result as its string form.
+ */
+final class ByteSequence implements CharSequence {
+
+  private final ByteBuffer buffer;
+  private final int offset;
+  private final int length;
+
+  ByteSequence(ByteBuffer buffer) {
+    this(buffer, buffer.position(), buffer.remaining());
+  }
+
+  /**
+   * @param buffer buffer viewed
+   * @param offset absolute index of the first byte of the view
+   * @param length number of bytes of the view
+   */
+  ByteSequence(ByteBuffer buffer, int offset, int length) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+    return (char) (buffer.get(offset + index) & 0xFF);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException(String.format("%d - %d", start, end));
+    }
+    return new ByteSequence(buffer, offset + start, end - start);
+  }
+
+  /** Copies all bytes of the view into destination, starting at given index */
+  void copyTo(byte[] destination, int destinationOffset) {
+    ByteBuffer source = buffer.duplicate();
+    source.position(offset);
+    source.get(destination, destinationOffset, length);
+  }
+
+  @Override
+  public String toString() {
+    byte[] bytes = new byte[length];
+    copyTo(bytes, 0);
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Order in which verdicts and ip address positions are tried. Adaptive order keeps running
+ * statistics of matches and tries the most likely candidates first, so in typical traffic (mostly
+ * "ok" verdicts, matching at the same position of X-Forwarded-For) single HMAC is enough. Fixed
+ * order tries verdicts from "ok" to "bot" and addresses in the order they were given.
+ *
+ * <p>Order of verdicts never changes the result, as token of an address matches single verdict.
+ * Order of addresses can: when an address given earlier is malformed, or matches as well (e.g. ip6
+ * address next to matching ip4 one), fixed order reports it, while adaptive order may report the
+ * later, more likely one. Duplicates of the matching address are resolved by the verifier.
+ *
+ * <p>Adaptive order is mutable state shared by all threads using the verifier. Recording a match
+ * only increments striped counters. Order is recomputed on a sample of matches, giving more weight
+ * to recent ones, and published as immutable snapshot.
+ */
+final class CandidateOrder {
+
+  /** Order used when no statistics are kept */
+  static final CandidateOrder FIXED = new CandidateOrder(false, false);
+
+  /** Positions of ip addresses tracked, later positions keep their original order */
+  static final int TRACKED_POSITIONS = 8;
+
+  /** On average, order is recomputed once per this many matches */
+  private static final int REORDER_SAMPLE = 256;
+
+  private final boolean adaptive;
+  private final boolean adaptivePositions;
+  private final LongAdder[] verdictMatches;
+  private final LongAdder[] positionMatches = new LongAdder[TRACKED_POSITIONS];
+  private final AtomicBoolean reordering = new AtomicBoolean();
+
+  /** Decayed match counts and raw counts seen at last reorder, guarded by reordering flag */
+  private final double[] verdictWeights;
+
+  private final double[] positionWeights = new double[TRACKED_POSITIONS];
+  private final long[] verdictSeen;
+  private final long[] positionSeen = new long[TRACKED_POSITIONS];
+
+  private volatile Snapshot snapshot;
+
+  /** @return new order adapting both verdicts and ip address positions */
+  static CandidateOrder adaptive() {
+    return new CandidateOrder(true, true);
+  }
+
+  /** @return new order adapting verdicts only, so that results are the same as of fixed order */
+  static CandidateOrder adaptiveVerdicts() {
+    return new CandidateOrder(true, false);
+  }
+
+  private CandidateOrder(boolean adaptive, boolean adaptivePositions) {
+    int verdicts = SignatureVerifierService.VERDICT_CODES.length;
+    this.adaptive = adaptive;
+    this.adaptivePositions = adaptivePositions;
+    this.verdictMatches = new LongAdder[verdicts];
+    this.verdictWeights = new double[verdicts];
+    this.verdictSeen = new long[verdicts];
+    for (int i = 0; i < verdicts; i++) {
+      verdictMatches[i] = new LongAdder();
+    }
+    for (int i = 0; i < TRACKED_POSITIONS; i++) {
+      positionMatches[i] = new LongAdder();
+    }
+    this.snapshot = new Snapshot(identity(verdicts), new int[TRACKED_POSITIONS + 1][]);
+  }
+
+  /** @return true if statistics are kept */
+  boolean isAdaptive() {
+    return adaptive;
+  }
+
+  /** @return indexes of verdicts, see {@link SignatureVerifierService#VERDICT_CODES} */
+  int[] verdicts() {
+    return snapshot.verdicts;
+  }
+
+  /**
+   * @param count number of ip addresses
+   * @return original positions of addresses in the order they should be tried, null if they should
+   *     be tried in original order
+   */
+  int[] positions(int count) {
+    int[][] permutations = snapshot.permutations;
+    if (count <= TRACKED_POSITIONS) {
+      return permutations[count];
+    }
+
+    int[] tracked = permutations[TRACKED_POSITIONS];
+    if (tracked == null) {
+      return null;
+    }
+
+    int[] positions = new int[count];
+    System.arraycopy(tracked, 0, positions, 0, TRACKED_POSITIONS);
+    for (int i = TRACKED_POSITIONS; i < count; i++) {
+      positions[i] = i;
+    }
+    return positions;
+  }
+
+  /**
+   * @param verdict index of matched verdict
+   * @param position original position of matched ip address
+   */
+  void record(int verdict, int position) {
+    if (!adaptive) {
+      return;
+    }
+
+    verdictMatches[verdict].increment();
+    if (adaptivePositions && position < TRACKED_POSITIONS) {
+      positionMatches[position].increment();
+    }
+
+    if (ThreadLocalRandom.current().nextInt(REORDER_SAMPLE) == 0
+        && reordering.compareAndSet(false, true)) {
+      try {
+        reorder();
+      } finally {
+        reordering.set(false);
+      }
+    }
+  }
+
+  private void reorder() {
+    int[] verdicts = byWeight(verdictMatches, verdictSeen, verdictWeights);
+    int[] positions = byWeight(positionMatches, positionSeen, positionWeights);
+
+    int[][] permutations = new int[TRACKED_POSITIONS + 1][];
+    for (int count = 2; count <= TRACKED_POSITIONS; count++) {
+      int[] permutation = new int[count];
+      int idx = 0;
+      for (int position : positions) {
+        if (position < count) {
+          permutation[idx++] = position;
+        }
+      }
+      permutations[count] = isIdentity(permutation) ? null : permutation;
+    }
+
+    snapshot = new Snapshot(verdicts, permutations);
+  }
+
+  /** Halves old weights and adds matches since last reorder, returns indexes by weight */
+  private static int[] byWeight(LongAdder[] matches, long[] seen, double[] weights) {
+    Integer[] order = new Integer[matches.length];
+    for (int i = 0; i < matches.length; i++) {
+      long total = matches[i].sum();
+      weights[i] = weights[i] / 2 + (total - seen[i]);
+      seen[i] = total;
+      order[i] = i;
+    }
+
+    // Stable sort, so candidates with equal weight keep their original order
+    Arrays.sort(order, (a, b) -> Double.compare(weights[b], weights[a]));
+
+    int[] result = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      result[i] = order[i];
+    }
+    return result;
+  }
+
+  private static int[] identity(int count) {
+    int[] result = new int[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = i;
+    }
+    return result;
+  }
+
+  private static boolean isIdentity(int[] permutation) {
+    for (int i = 0; i < permutation.length; i++) {
+      if (permutation[i] != i) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static final class Snapshot {
+
+    private final int[] verdicts;
+
+    /** Permutation of positions per number of addresses, null for original order */
+    private final int[][] permutations;
+
+    private Snapshot(int[] verdicts, int[][] permutations) {
+      this.verdicts = verdicts;
+      this.permutations = permutations;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+/**
+ * Fields decoded from AdScore signature. Decoding does not require zone key, so signature can be
+ * decoded once (e.g. to drop malformed ones early) and then verified by any number of {@link
+ * ZoneVerifier}s, see {@link ZoneVerifier#verify(DecodedSignature, String, String...)}. Only
+ * versions 3 and 4 can be decoded this way, payload of version 5 is encrypted with the zone key.
+ *
+ * <p>Instances are immutable and thread-safe.
+ */
+public final class DecodedSignature {
+
+  static final int MASTER = 0;
+  static final int CUSTOMER = 1;
+
+  /** Role index requesting fields of all roles to be decoded */
+  static final int ALL_ROLES = -1;
+
+  private final int version;
+  private final int requestTime;
+  private final int signatureTime;
+
+  private final int[] signTypes;
+  private final ByteSlice[] tokens;
+  private final ByteSlice[] tokensV6;
+
+  /**
+   * @param signTypes sign types indexed by role, see {@link #roleIndex(String)}
+   * @param tokens ip4 tokens indexed by role, null when not present or not decoded
+   * @param tokensV6 ip6 tokens indexed by role, null when not present or not decoded
+   */
+  DecodedSignature(
+      int version,
+      int requestTime,
+      int signatureTime,
+      int[] signTypes,
+      ByteSlice[] tokens,
+      ByteSlice[] tokensV6) {
+    this.version = version;
+    this.requestTime = requestTime;
+    this.signatureTime = signatureTime;
+    this.signTypes = signTypes;
+    this.tokens = tokens;
+    this.tokensV6 = tokensV6;
+  }
+
+  /**
+   * Decodes signature without verifying it.
+   *
+   * @param signature the string which we want to decode
+   * @return decoded signature
+   * @throws IllegalArgumentException when signature is malformed, message describes the reason in
+   *     the same way as {@link SignatureVerificationResult#getError()}
+   * @throws UnsupportedOperationException when signature is of version 5, which cannot be decoded
+   *     without zone key and has to be verified with {@link ZoneVerifier#verify(String, String,
+   *     String...)}
+   */
+  public static DecodedSignature decode(String signature) {
+    byte[] decoded = SignatureVerifierUtils.fromBase64(signature);
+    if (decoded.length > 0 && decoded[0] == Signature5Decoder.VERSION) {
+      throw new UnsupportedOperationException(
+          "Version 5 signature cannot be decoded without zone key, verify it with ZoneVerifier");
+    }
+
+    try {
+      return SignatureVerifierService.decode(decoded);
+    } catch (BaseSignatureVerificationException exp) {
+      throw new IllegalArgumentException(exp.getMessage(), exp);
+    }
+  }
+
+  /**
+   * @param signRole sign role name
+   * @return index of the role used by role dependent accessors or -1 if role is not known
+   */
+  static int roleIndex(String signRole) {
+    if ("customer".equals(signRole)) {
+      return CUSTOMER;
+    }
+    if ("master".equals(signRole)) {
+      return MASTER;
+    }
+    return -1;
+  }
+
+  /** @return signature format version, 3 or 4 */
+  public int getVersion() {
+    return version;
+  }
+
+  /** @return unix timestamp of the request signature was issued for */
+  public int getRequestTime() {
+    return requestTime;
+  }
+
+  /** @return unix timestamp signature was issued at */
+  public int getSignatureTime() {
+    return signatureTime;
+  }
+
+  /**
+   * @param signRole sign role name, "customer" or "master"
+   * @return sign type of given role or 0 if signature does not contain it
+   */
+  public int getSignType(String signRole) {
+    return signType(roleIndex(signRole));
+  }
+
+  /**
+   * @param signRole sign role name, "customer" or "master"
+   * @return copy of ip4 token of given role or null if signature does not contain it
+   */
+  public byte[] getToken(String signRole) {
+    ByteSlice token = token(roleIndex(signRole));
+    return token != null ? token.toByteArray() : null;
+  }
+
+  /**
+   * @param signRole sign role name, "customer" or "master"
+   * @return copy of ip6 token of given role or null if signature does not contain it
+   */
+  public byte[] getTokenV6(String signRole) {
+    ByteSlice token = tokenV6(roleIndex(signRole));
+    return token != null ? token.toByteArray() : null;
+  }
+
+  int signType(int role) {
+    return role < 0 ? 0 : signTypes[role];
+  }
+
+  ByteSlice token(int role) {
+    return role < 0 ? null : tokens[role];
+  }
+
+  ByteSlice tokenV6(int role) {
+    return role < 0 ? null : tokensV6[role];
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Candidate ip addresses of a request: remote address and addresses from X-Forwarded-For headers.
+ * Addresses are extracted directly from header values while iterating, so when verifier finds
+ * matching address early, rest of the headers is never parsed. Forwarded addresses are views of the
+ * header values, so characters are not copied until the matching address is reported.
+ *
+ * <p>Surrounding whitespace, brackets of ip6 addresses and ports of ip4 addresses are removed.
+ * Instances are immutable and can be iterated many times.
+ */
+public final class ForwardedAddresses implements Iterable<CharSequence> {
+
+  /** Order in which candidate addresses are iterated */
+  public enum Order {
+    /** Forwarded addresses from the original client to the nearest proxy, then remote address */
+    CLIENT_FIRST,
+    /** Remote address, then forwarded addresses from the original client to the nearest proxy */
+    REMOTE_FIRST,
+    /** Remote address, then forwarded addresses from the nearest proxy to the original client */
+    NEAREST_FIRST
+  }
+
+  private final String remoteAddress;
+  private final Order order;
+  private final String[] forwardedFor;
+
+  private ForwardedAddresses(String remoteAddress, Order order, String[] forwardedFor) {
+    this.remoteAddress = remoteAddress;
+    this.order = order;
+    this.forwardedFor = forwardedFor;
+  }
+
+  /**
+   * @param remoteAddress address of the peer, e.g. ServletRequest.getRemoteAddr(), may be null
+   * @param order order of iteration
+   * @param forwardedFor raw values of X-Forwarded-For headers, in the order they were received,
+   *     each may contain many comma separated addresses
+   * @return candidate addresses
+   */
+  public static ForwardedAddresses of(String remoteAddress, Order order, String... forwardedFor) {
+    return new ForwardedAddresses(
+        remoteAddress, order, forwardedFor != null ? forwardedFor : new String[0]);
+  }
+
+  @Override
+  public Iterator<CharSequence> iterator() {
+    return new Candidates();
+  }
+
+  /**
+   * @return address between start and end of the header with surrounding whitespace, brackets and
+   *     port removed or null if there is none
+   */
+  private static CharSequence address(String header, int start, int end) {
+    while (start < end && Character.isWhitespace(header.charAt(start))) {
+      start++;
+    }
+    while (end > start && Character.isWhitespace(header.charAt(end - 1))) {
+      end--;
+    }
+    if (start == end) {
+      return null;
+    }
+
+    if (header.charAt(start) == '[') {
+      int closing = header.indexOf(']', start);
+      if (closing > start && closing < end) {
+        return closing > start + 1 ? new Slice(header, start + 1, closing) : null;
+      }
+    }
+
+    int colon = header.indexOf(':', start);
+    int dot = header.indexOf('.', start);
+    if (colon >= 0 && colon < end && dot >= 0 && dot < colon) {
+      int secondColon = header.indexOf(':', colon + 1);
+      if (secondColon < 0 || secondColon >= end) {
+        // ip4 address with port
+        end = colon;
+      }
+    }
+
+    return new Slice(header, start, end);
+  }
+
+  /** Characters of a header value between start and end */
+  private static final class Slice implements CharSequence {
+
+    private final String value;
+    private final int start;
+    private final int end;
+
+    Slice(String value, int start, int end) {
+      this.value = value;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public int length() {
+      return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= end - start) {
+        throw new IndexOutOfBoundsException(String.valueOf(index));
+      }
+      return value.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      if (start < 0 || end > length() || start > end) {
+        throw new IndexOutOfBoundsException(String.format("%d - %d", start, end));
+      }
+      return new Slice(value, this.start + start, this.start + end);
+    }
+
+    @Override
+    public String toString() {
+      return value.substring(start, end);
+    }
+  }
+
+  private final class Candidates implements Iterator<CharSequence> {
+
+    private final boolean backward = order == Order.NEAREST_FIRST;
+    private boolean remotePending = remoteAddress != null && !remoteAddress.isEmpty();
+    private int header = backward ? forwardedFor.length - 1 : 0;
+    private int position = backward ? length(header) : 0;
+    private CharSequence next;
+
+    @Override
+    public boolean hasNext() {
+      if (next == null) {
+        next = advance();
+      }
+      return next != null;
+    }
+
+    @Override
+    public CharSequence next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      CharSequence result = next;
+      next = null;
+      return result;
+    }
+
+    private CharSequence advance() {
+      if (remotePending && order != Order.CLIENT_FIRST) {
+        remotePending = false;
+        return remoteAddress;
+      }
+
+      CharSequence address = backward ? previousForwarded() : nextForwarded();
+      if (address != null) {
+        return address;
+      }
+
+      if (remotePending) {
+        remotePending = false;
+        return remoteAddress;
+      }
+
+      return null;
+    }
+
+    private CharSequence nextForwarded() {
+      while (header < forwardedFor.length) {
+        String value = forwardedFor[header];
+        if (value == null || position > value.length()) {
+          header++;
+          position = 0;
+          continue;
+        }
+
+        int start = position;
+        int end = value.indexOf(',', start);
+        if (end < 0) {
+          end = value.length();
+        }
+        position = end + 1;
+
+        CharSequence address = address(value, start, end);
+        if (address != null) {
+          return address;
+        }
+      }
+
+      return null;
+    }
+
+    private CharSequence previousForwarded() {
+      while (header >= 0) {
+        String value = forwardedFor[header];
+        if (value == null || position < 0) {
+          header--;
+          position = length(header);
+          continue;
+        }
+
+        int end = position;
+        int start = end > 0 ? value.lastIndexOf(',', end - 1) + 1 : 0;
+        position = start - 1;
+
+        CharSequence address = address(value, start, end);
+        if (address != null) {
+          return address;
+        }
+      }
+
+      return null;
+    }
+
+    private int length(int header) {
+      return header >= 0 && forwardedFor[header] != null ? forwardedFor[header].length() : 0;
+    }
+  }
+}
@@ -30,16 +30,29 @@ import inet.ipaddr.IPAddressString;
 /**
  * Utils for handling ipV6
  *
+ * <p>Addresses written in the usual textual forms (hex groups, optional "::" and optional dotted
+ * ip4 tail, plain dotted ip4) are classified and canonicalized in a single pass over the string.
+ * Everything else (zones, prefixes, wildcards, surrounding whitespace, base 85, ...) is left to
+ * IPAddress library, so results are always the same as produced by it.
+ *
  * @author Łukasz Hyła <lhyla@iterative.pl>
  */
 class IpV6Utils {
 
+  private static final int SEGMENTS = 8;
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
   /**
    * @param ipAddress string which will be checked if contains correct ip6 address
    * @return true if ipAddress is ip6, false otherwise
    */
   static boolean validate(String ipAddress) {
-    return new IPAddressString(ipAddress).isIPv6();
+    try {
+      return canonicalize(ipAddress) != null;
+    } catch (SignatureVerificationException exp) {
+      return true;
+    }
   }
 
   /**
@@ -48,16 +61,253 @@ class IpV6Utils {
    * @throws SignatureVerificationException
    */
   static String abbreviate(String ipAddress) throws SignatureVerificationException {
+    String result = canonicalize(ipAddress);
+
+    if (result == null) {
+      throw new SignatureVerificationException(
+          SignatureVerificationError.INVALID_ADDRESS, ": %s", ipAddress);
+    }
+
+    return result;
+  }
+
+  /**
+   * Combines {@link #validate(String)} and {@link #abbreviate(String)}, parsing address only once
+   *
+   * @param ipAddress ip4 or ip6 address
+   * @return canonical representation of ip6 address or null if ipAddress is not ip6
+   * @throws SignatureVerificationException if address is ip6, but cannot be converted
+   */
+  static String canonicalize(CharSequence ipAddress) throws SignatureVerificationException {
+    if (!containsColon(ipAddress)) {
+      if (isDottedDecimal(ipAddress)) {
+        return null;
+      }
+      return canonicalizeWithLibrary(ipAddress.toString());
+    }
+
+    int[] segments = new int[SEGMENTS];
+    if (!parse(ipAddress, segments)) {
+      return canonicalizeWithLibrary(ipAddress.toString());
+    }
+
+    return format(segments);
+  }
+
+  private static String canonicalizeWithLibrary(String ipAddress)
+      throws SignatureVerificationException {
     IPAddressString ip6 = new IPAddressString(ipAddress);
 
     if (!ip6.isIPv6()) {
-      throw new SignatureVerificationException(String.format("Invalid address: %s", ipAddress));
+      return null;
     }
 
     try {
-      return new IPAddressString(ipAddress).toAddress().toIPv6().toString();
+      return ip6.toAddress().toIPv6().toString();
     } catch (AddressStringException e) {
-      throw new SignatureVerificationException(String.format("Invalid address: %s", ipAddress));
+      throw new SignatureVerificationException(
+          SignatureVerificationError.INVALID_ADDRESS, ": %s", ipAddress);
+    }
+  }
+
+  private static boolean containsColon(CharSequence ipAddress) {
+    for (int i = 0; i < ipAddress.length(); i++) {
+      if (ipAddress.charAt(i) == ':') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isDottedDecimal(CharSequence ipAddress) {
+    for (int i = 0; i < ipAddress.length(); i++) {
+      char c = ipAddress.charAt(i);
+      if ((c < '0' || c > '9') && c != '.') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses ip6 address written as hex groups, with optional "::" and optional dotted ip4 tail
+   *
+   * @param ipAddress address to parse
+   * @param segments array of 8 segments to fill
+   * @return false if address is not written in one of the supported forms
+   */
+  private static boolean parse(CharSequence ipAddress, int[] segments) {
+    int length = ipAddress.length();
+    int count = 0;
+    int gap = -1;
+    int idx = 0;
+
+    if (length >= 2 && ipAddress.charAt(0) == ':' && ipAddress.charAt(1) == ':') {
+      gap = 0;
+      idx = 2;
+    }
+
+    while (idx < length) {
+      int start = idx;
+      int value = 0;
+      while (idx < length && idx - start < 4) {
+        int digit = hexDigit(ipAddress.charAt(idx));
+        if (digit < 0) {
+          break;
+        }
+        value = (value << 4) | digit;
+        idx++;
+      }
+
+      if (idx < length && ipAddress.charAt(idx) == '.') {
+        // Dotted ip4 tail, occupies last two segments
+        if (count > SEGMENTS - 2 || !parseIpV4(ipAddress, start, segments, count)) {
+          return false;
+        }
+        count += 2;
+        break;
+      }
+
+      if (idx == start || count == SEGMENTS) {
+        return false;
+      }
+      segments[count++] = value;
+
+      if (idx == length) {
+        break;
+      }
+      if (ipAddress.charAt(idx) != ':' || ++idx == length) {
+        return false;
+      }
+      if (ipAddress.charAt(idx) == ':') {
+        if (gap >= 0) {
+          return false;
+        }
+        gap = count;
+        idx++;
+      }
+    }
+
+    if (gap < 0) {
+      return count == SEGMENTS;
+    }
+    if (count == SEGMENTS) {
+      return false;
     }
+
+    int moved = count - gap;
+    System.arraycopy(segments, gap, segments, SEGMENTS - moved, moved);
+    for (int i = gap; i < SEGMENTS - moved; i++) {
+      segments[i] = 0;
+    }
+
+    return true;
+  }
+
+  private static int hexDigit(char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    }
+    if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    }
+    if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    }
+    return -1;
+  }
+
+  /** Parses 4 decimal octets without leading zeros, from start till the end of ipAddress */
+  private static boolean parseIpV4(CharSequence ipAddress, int start, int[] segments, int segment) {
+    int length = ipAddress.length();
+    int result = 0;
+    int idx = start;
+
+    for (int octet = 0; octet < 4; octet++) {
+      int octetStart = idx;
+      int value = 0;
+      while (idx < length && idx - octetStart < 3) {
+        char c = ipAddress.charAt(idx);
+        if (c < '0' || c > '9') {
+          break;
+        }
+        value = value * 10 + (c - '0');
+        idx++;
+      }
+
+      int digits = idx - octetStart;
+      if (digits == 0 || value > 255 || (digits > 1 && ipAddress.charAt(octetStart) == '0')) {
+        return false;
+      }
+      result = (result << 8) | value;
+
+      if (octet < 3) {
+        if (idx == length || ipAddress.charAt(idx) != '.') {
+          return false;
+        }
+        idx++;
+      }
+    }
+
+    if (idx != length) {
+      return false;
+    }
+
+    segments[segment] = result >>> 16;
+    segments[segment + 1] = result & 0xFFFF;
+    return true;
+  }
+
+  /**
+   * Formats segments same as canonical string of IPAddress library: lowercase, no leading zeros,
+   * the longest run of at least two zero segments (first one if there are more) replaced with "::"
+   */
+  private static String format(int[] segments) {
+    int gapStart = -1;
+    int gapLength = 1;
+    for (int i = 0; i < SEGMENTS; ) {
+      if (segments[i] != 0) {
+        i++;
+        continue;
+      }
+
+      int runStart = i;
+      while (i < SEGMENTS && segments[i] == 0) {
+        i++;
+      }
+      if (i - runStart > gapLength) {
+        gapStart = runStart;
+        gapLength = i - runStart;
+      }
+    }
+
+    char[] chars = new char[SEGMENTS * 5];
+    int length = 0;
+    for (int i = 0; i < SEGMENTS; i++) {
+      if (i == gapStart) {
+        chars[length++] = ':';
+        if (i == 0) {
+          chars[length++] = ':';
+        }
+        i += gapLength - 1;
+        continue;
+      }
+
+      int value = segments[i];
+      boolean started = false;
+      for (int shift = 12; shift >= 0; shift -= 4) {
+        int digit = (value >>> shift) & 0xF;
+        if (digit != 0 || started || shift == 0) {
+          chars[length++] = HEX_DIGITS[digit];
+          started = true;
+        }
+      }
+
+      if (i < SEGMENTS - 1) {
+        chars[length++] = ':';
+      }
+    }
+
+    return new String(chars, 0, length);
   }
 }
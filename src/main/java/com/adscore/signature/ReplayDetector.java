@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Detects signatures verified more than once, e.g. valid signature replayed by a fraudster against
+ * many impressions, see {@link ZoneVerifier#withReplayDetector(ReplayDetector)}. Seen signatures
+ * are recorded in Bloom filters of fixed size, each covering one time window, so memory does not
+ * depend on traffic volume. Signature is recognized as replayed when it was seen in current or
+ * previous window.
+ *
+ * <p>Signature is identified by the token it matched, not by the request it was verified for, so
+ * verifying the same signature again is reported as replay also when it is verified with another
+ * list of candidate addresses or by another verifier sharing the detector. Verify each signature
+ * once, e.g. with all candidate addresses at once, before acting on the replay flag.
+ *
+ * <p>Being probabilistic, detector may flag small fraction (configured false positive rate) of
+ * signatures seen for the first time as replayed, when its expected traffic is not exceeded.
+ * Recording is lock-free, only the first verification of each window takes a lock to clear stale
+ * filters. Detector can be shared by verifiers of many zones.
+ */
+public final class ReplayDetector {
+
+  private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+  /** Filters of current and previous window, plus one cleared in advance for the next window */
+  private static final int FILTERS = 3;
+
+  private final long windowMillis;
+  private final int hashes;
+  private final long bitMask;
+  private final AtomicLongArray[] filters = new AtomicLongArray[FILTERS];
+
+  /** Window recorded into, published only after stale filters were cleared */
+  private volatile long currentWindow = -1;
+
+  /**
+   * @param windowSeconds how long signature is remembered at least, should be at least the expiry
+   *     of the verifier
+   * @param expectedPerSecond expected number of verified signatures per second
+   */
+  public ReplayDetector(int windowSeconds, long expectedPerSecond) {
+    this(windowSeconds, expectedPerSecond, DEFAULT_FALSE_POSITIVE_RATE);
+  }
+
+  /**
+   * @param windowSeconds how long signature is remembered at least, should be at least the expiry
+   *     of the verifier
+   * @param expectedPerSecond expected number of verified signatures per second
+   * @param falsePositiveRate probability of flagging signature seen for the first time, when
+   *     expected traffic is not exceeded
+   */
+  public ReplayDetector(int windowSeconds, long expectedPerSecond, double falsePositiveRate) {
+    if (windowSeconds <= 0) {
+      throw new IllegalArgumentException("windowSeconds must be positive");
+    }
+    if (expectedPerSecond <= 0) {
+      throw new IllegalArgumentException("expectedPerSecond must be positive");
+    }
+    if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+      throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+    }
+
+    double ln2 = Math.log(2);
+    long expected = expectedPerSecond * windowSeconds;
+    long bits = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (ln2 * ln2));
+    // Round up to power of two, so bit index is computed with a mask
+    bits = Math.max(Long.SIZE, Long.highestOneBit(bits - 1) << 1);
+    if (bits / Long.SIZE > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("expected traffic too high");
+    }
+
+    this.windowMillis = windowSeconds * 1000L;
+    this.hashes = Math.max(1, (int) Math.round((double) bits / expected * ln2));
+    this.bitMask = bits - 1;
+    for (int i = 0; i < FILTERS; i++) {
+      filters[i] = new AtomicLongArray((int) (bits / Long.SIZE));
+    }
+  }
+
+  /** @return memory used by filters in bytes */
+  public long getMemoryUsage() {
+    return (bitMask + 1) / Byte.SIZE * FILTERS;
+  }
+
+  /**
+   * Records token of verified signature
+   *
+   * @param token HMAC token signature was verified with, at least 16 bytes long
+   * @return true if the token was seen before within current or previous window
+   */
+  boolean checkAndRecord(ByteSlice token) {
+    return checkAndRecord(token, System.currentTimeMillis());
+  }
+
+  /**
+   * @param token HMAC token signature was verified with, at least 16 bytes long
+   * @param now current epoch time in milliseconds
+   * @return true if the token was seen before within current or previous window
+   */
+  boolean checkAndRecord(ByteSlice token, long now) {
+    long window = now / windowMillis;
+    if (window > currentWindow) {
+      rotate(window);
+    }
+
+    AtomicLongArray current = filters[(int) (window % FILTERS)];
+    AtomicLongArray previous = filters[(int) ((window + FILTERS - 1) % FILTERS)];
+
+    // Token is an HMAC, so its bytes are already uniformly distributed hash
+    long h1 = readLong(token, 0);
+    long h2 = readLong(token, 8) | 1;
+
+    boolean seenInCurrent = true;
+    boolean seenInPrevious = true;
+    for (int i = 0; i < hashes; i++) {
+      long bit = (h1 + i * h2) & bitMask;
+      int idx = (int) (bit >>> 6);
+      long mask = 1L << bit;
+
+      if (seenInPrevious && (previous.get(idx) & mask) == 0) {
+        seenInPrevious = false;
+      }
+      if (!set(current, idx, mask)) {
+        seenInCurrent = false;
+      }
+    }
+
+    return seenInCurrent || seenInPrevious;
+  }
+
+  /**
+   * Moves to given window. First thread entering it clears filter of the following window, which
+   * held signatures no longer needed. When windows were skipped, all filters are stale. Filters are
+   * cleared before the window is published, so other threads entering it wait instead of recording
+   * into a filter about to be cleared.
+   */
+  private synchronized void rotate(long window) {
+    long known = currentWindow;
+    if (window <= known) {
+      return;
+    }
+
+    if (window == known + 1) {
+      clear(filters[(int) ((window + 1) % FILTERS)]);
+    } else {
+      for (AtomicLongArray filter : filters) {
+        clear(filter);
+      }
+    }
+    currentWindow = window;
+  }
+
+  private static void clear(AtomicLongArray filter) {
+    for (int i = 0; i < filter.length(); i++) {
+      filter.set(i, 0);
+    }
+  }
+
+  /** @return true if the bit was already set */
+  private static boolean set(AtomicLongArray filter, int idx, long mask) {
+    long value;
+    do {
+      value = filter.get(idx);
+      if ((value & mask) != 0) {
+        return true;
+      }
+    } while (!filter.compareAndSet(idx, value, value | mask));
+
+    return false;
+  }
+
+  private static long readLong(ByteSlice bytes, int offset) {
+    long value = 0;
+    for (int i = 0; i < 8; i++) {
+      value = (value << 8) | (bytes.get(offset + i) & 0xFF);
+    }
+    return value;
+  }
+}
@@ -0,0 +1,528 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Decoder of version 5 signatures, which carry encrypted payload instead of HMAC tokens. Layout of
+ * decoded signature is
+ *
+ * <pre>
+ * version (1 byte, 5) | payload length (2 bytes) | zone id (8 bytes) | payload
+ * payload:   method (2 bytes, little endian) | iv | [tag] | encrypted struct
+ * struct:    type (1 byte, 'J' for JSON, 'H' for url-encoded query) | fields
+ * </pre>
+ *
+ * <p>Payload is decrypted with the zone key into a per-thread buffer and fields are read directly
+ * from it; strings are created only for fields needed for verification. Cipher instances are
+ * created once per thread and key and reinitialized with the iv of each signature.
+ */
+final class Signature5Decoder {
+
+  static final int VERSION = 5;
+
+  private static final int HEADER_LENGTH = 11;
+
+  private static final int METHOD_AES_CBC = 0x0200;
+  private static final int METHOD_AES_GCM = 0x0201;
+
+  private static final int CBC_IV_LENGTH = 16;
+  private static final int GCM_IV_LENGTH = 12;
+  private static final int GCM_TAG_LENGTH = 16;
+
+  private static final SignatureVerificationException PREMATURE_END =
+      new SignatureVerificationException(SignatureVerificationError.PREMATURE_END);
+  private static final SignatureVerificationException UNSUPPORTED_ENCRYPTION =
+      new SignatureVerificationException(
+          SignatureVerificationError.UNSUPPORTED_PAYLOAD, ": encryption method");
+  private static final SignatureVerificationException UNSUPPORTED_STRUCT =
+      new SignatureVerificationException(
+          SignatureVerificationError.UNSUPPORTED_PAYLOAD, ": struct");
+  private static final SignatureVerificationException MALFORMED_STRUCT =
+      new SignatureVerificationException(
+          SignatureVerificationError.UNSUPPORTED_PAYLOAD, ": malformed struct");
+  private static final SignatureVerificationException DECRYPTION_FAILED =
+      new SignatureVerificationException(SignatureVerificationError.DECRYPTION_FAILED);
+  private static final SignatureVerificationException INVALID_KEY =
+      new SignatureVerificationException(SignatureVerificationError.INVALID_KEY);
+
+  private final SecretKeySpec key;
+
+  private final ThreadLocal<CipherState> cipherState = ThreadLocal.withInitial(CipherState::new);
+
+  /** @param key raw zone key, 32 bytes for AES-256 */
+  Signature5Decoder(byte[] key) {
+    this.key = new SecretKeySpec(key, "AES");
+  }
+
+  /**
+   * @param signature signature already decoded from base64, starting with version byte 5
+   * @return fields of decrypted payload
+   * @throws BaseSignatureVerificationException if signature is truncated, cannot be decrypted with
+   *     the zone key or its payload is not supported
+   */
+  Payload decode(byte[] signature) throws BaseSignatureVerificationException {
+    SignatureReader reader = new SignatureReader(signature);
+    if (reader.remaining() < HEADER_LENGTH) {
+      throw PREMATURE_END;
+    }
+
+    reader.readUnsignedByte();
+    int length = reader.readUnsignedShort();
+    long zoneId = reader.readLong();
+    if (reader.remaining() < length || length < 2) {
+      throw PREMATURE_END;
+    }
+
+    int offset = reader.getOffset();
+    int method = (signature[offset] & 0xFF) | ((signature[offset + 1] & 0xFF) << 8);
+    CipherState state = cipherState.get();
+    int structLength = state.decrypt(method, signature, offset + 2, length - 2);
+
+    Payload payload = new Payload(zoneId, new ByteSlice(signature, offset, length));
+    parseStruct(state.buffer, structLength, payload);
+    return payload;
+  }
+
+  private static void parseStruct(byte[] struct, int length, Payload payload)
+      throws BaseSignatureVerificationException {
+    if (length == 0) {
+      throw MALFORMED_STRUCT;
+    }
+
+    switch (struct[0]) {
+      case 'J':
+        new JsonReader(struct, 1, length, payload).readDocument();
+        return;
+      case 'H':
+        readQuery(struct, 1, length, payload);
+        return;
+      default:
+        throw UNSUPPORTED_STRUCT;
+    }
+  }
+
+  /** Reads url-encoded query, nested keys ("ipv4[ip]") are flattened with dots ("ipv4.ip") */
+  private static void readQuery(byte[] struct, int start, int end, Payload payload) {
+    int idx = start;
+    while (idx < end) {
+      int pairEnd = idx;
+      int separator = -1;
+      while (pairEnd < end && struct[pairEnd] != '&') {
+        if (struct[pairEnd] == '=' && separator < 0) {
+          separator = pairEnd;
+        }
+        pairEnd++;
+      }
+
+      if (separator > idx) {
+        String key = percentDecode(struct, idx, separator).replace("][", ".");
+        key = key.replace("[", ".").replace("]", "");
+        if (Payload.isField(key)) {
+          payload.set(key, percentDecode(struct, separator + 1, pairEnd));
+        }
+      }
+      idx = pairEnd + 1;
+    }
+  }
+
+  private static String percentDecode(byte[] bytes, int start, int end) {
+    byte[] result = new byte[end - start];
+    int length = 0;
+    for (int i = start; i < end; i++) {
+      byte b = bytes[i];
+      if (b == '+') {
+        b = ' ';
+      } else if (b == '%' && i + 2 < end && hexDigit(bytes[i + 1]) >= 0) {
+        int low = hexDigit(bytes[i + 2]);
+        if (low >= 0) {
+          b = (byte) ((hexDigit(bytes[i + 1]) << 4) | low);
+          i += 2;
+        }
+      }
+      result[length++] = b;
+    }
+    return new String(result, 0, length, StandardCharsets.UTF_8);
+  }
+
+  private static int hexDigit(byte c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    }
+    if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    }
+    if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    }
+    return -1;
+  }
+
+  /** Cipher instances and output buffer of a single thread */
+  private final class CipherState {
+
+    private Cipher cbc;
+    private Cipher gcm;
+    private byte[] buffer = new byte[512];
+
+    /** @return number of decrypted bytes written to buffer */
+    int decrypt(int method, byte[] data, int offset, int length)
+        throws BaseSignatureVerificationException {
+      try {
+        switch (method) {
+          case METHOD_AES_CBC:
+            if (length < CBC_IV_LENGTH) {
+              throw PREMATURE_END;
+            }
+            if (cbc == null) {
+              cbc = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            }
+            cbc.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(data, offset, CBC_IV_LENGTH));
+            return doFinal(cbc, data, offset + CBC_IV_LENGTH, length - CBC_IV_LENGTH);
+          case METHOD_AES_GCM:
+            if (length < GCM_IV_LENGTH + GCM_TAG_LENGTH) {
+              throw PREMATURE_END;
+            }
+            if (gcm == null) {
+              gcm = Cipher.getInstance("AES/GCM/NoPadding");
+            }
+            gcm.init(
+                Cipher.DECRYPT_MODE,
+                key,
+                new GCMParameterSpec(GCM_TAG_LENGTH * 8, data, offset, GCM_IV_LENGTH));
+            // Tag precedes encrypted data, while cipher expects it at the end
+            int tagOffset = offset + GCM_IV_LENGTH;
+            int dataOffset = tagOffset + GCM_TAG_LENGTH;
+            int dataLength = length - GCM_IV_LENGTH - GCM_TAG_LENGTH;
+            ensureCapacity(gcm.getOutputSize(dataLength + GCM_TAG_LENGTH));
+            int written = gcm.update(data, dataOffset, dataLength, buffer, 0);
+            return written + gcm.doFinal(data, tagOffset, GCM_TAG_LENGTH, buffer, written);
+          default:
+            throw UNSUPPORTED_ENCRYPTION;
+        }
+      } catch (InvalidKeyException exp) {
+        throw INVALID_KEY;
+      } catch (GeneralSecurityException exp) {
+        throw DECRYPTION_FAILED;
+      }
+    }
+
+    private int doFinal(Cipher cipher, byte[] data, int offset, int length)
+        throws GeneralSecurityException {
+      ensureCapacity(cipher.getOutputSize(length));
+      return cipher.doFinal(data, offset, length, buffer, 0);
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (buffer.length < capacity) {
+        buffer = new byte[Math.max(capacity, buffer.length * 2)];
+      }
+    }
+  }
+
+  /**
+   * Reader of JSON document, nested objects are flattened with dots ("ipv4.ip"), arrays are skipped
+   */
+  private static final class JsonReader {
+
+    private final byte[] json;
+    private final int end;
+    private final Payload payload;
+    private int idx;
+
+    private JsonReader(byte[] json, int start, int end, Payload payload) {
+      this.json = json;
+      this.idx = start;
+      this.end = end;
+      this.payload = payload;
+    }
+
+    void readDocument() throws SignatureVerificationException {
+      skipWhitespace();
+      readObject("");
+      skipWhitespace();
+      if (idx != end) {
+        throw MALFORMED_STRUCT;
+      }
+    }
+
+    private void readObject(String prefix) throws SignatureVerificationException {
+      expect('{');
+      skipWhitespace();
+      if (peek() == '}') {
+        idx++;
+        return;
+      }
+
+      while (true) {
+        skipWhitespace();
+        String key = prefix + readString();
+        skipWhitespace();
+        expect(':');
+        skipWhitespace();
+        readValue(key);
+        skipWhitespace();
+        if (peek() == ',') {
+          idx++;
+          continue;
+        }
+        expect('}');
+        return;
+      }
+    }
+
+    private void readValue(String key) throws SignatureVerificationException {
+      byte b = peek();
+      if (b == '{') {
+        readObject(key + ".");
+      } else if (b == '[') {
+        skipArray();
+      } else if (b == '"') {
+        String value = readString();
+        if (Payload.isField(key)) {
+          payload.set(key, value);
+        }
+      } else {
+        int start = idx;
+        while (idx < end && isLiteralChar(json[idx])) {
+          idx++;
+        }
+        if (idx == start) {
+          throw MALFORMED_STRUCT;
+        }
+        if (Payload.isField(key)) {
+          payload.set(key, new String(json, start, idx - start, StandardCharsets.US_ASCII));
+        }
+      }
+    }
+
+    private void skipArray() throws SignatureVerificationException {
+      expect('[');
+      skipWhitespace();
+      if (peek() == ']') {
+        idx++;
+        return;
+      }
+
+      while (true) {
+        skipWhitespace();
+        byte b = peek();
+        if (b == '{') {
+          // Fields of objects within arrays are not used
+          readObject("[].");
+        } else if (b == '[') {
+          skipArray();
+        } else {
+          readValue("[]");
+        }
+        skipWhitespace();
+        if (peek() == ',') {
+          idx++;
+          continue;
+        }
+        expect(']');
+        return;
+      }
+    }
+
+    private String readString() throws SignatureVerificationException {
+      expect('"');
+      int start = idx;
+      while (idx < end && json[idx] != '"' && json[idx] != '\\') {
+        idx++;
+      }
+      if (idx < end && json[idx] == '"') {
+        // No escapes, the common case
+        return new String(json, start, idx++ - start, StandardCharsets.UTF_8);
+      }
+
+      StringBuilder result =
+          new StringBuilder(new String(json, start, idx - start, StandardCharsets.UTF_8));
+      int chunk = idx;
+      while (idx < end && json[idx] != '"') {
+        if (json[idx] != '\\') {
+          idx++;
+          continue;
+        }
+
+        result.append(new String(json, chunk, idx - chunk, StandardCharsets.UTF_8));
+        if (++idx == end) {
+          throw MALFORMED_STRUCT;
+        }
+        byte escaped = json[idx++];
+        switch (escaped) {
+          case 'b':
+            result.append('\b');
+            break;
+          case 'f':
+            result.append('\f');
+            break;
+          case 'n':
+            result.append('\n');
+            break;
+          case 'r':
+            result.append('\r');
+            break;
+          case 't':
+            result.append('\t');
+            break;
+          case 'u':
+            result.append(readUnicodeEscape());
+            break;
+          default:
+            result.append((char) escaped);
+        }
+        chunk = idx;
+      }
+
+      if (idx == end) {
+        throw MALFORMED_STRUCT;
+      }
+      result.append(new String(json, chunk, idx - chunk, StandardCharsets.UTF_8));
+      idx++;
+      return result.toString();
+    }
+
+    private char readUnicodeEscape() throws SignatureVerificationException {
+      if (end - idx < 4) {
+        throw MALFORMED_STRUCT;
+      }
+
+      int value = 0;
+      for (int i = 0; i < 4; i++) {
+        int digit = hexDigit(json[idx++]);
+        if (digit < 0) {
+          throw MALFORMED_STRUCT;
+        }
+        value = (value << 4) | digit;
+      }
+      return (char) value;
+    }
+
+    private static boolean isLiteralChar(byte c) {
+      return (c >= '0' && c <= '9')
+          || (c >= 'a' && c <= 'z')
+          || c == '-'
+          || c == '+'
+          || c == '.'
+          || c == 'E';
+    }
+
+    private byte peek() throws SignatureVerificationException {
+      if (idx == end) {
+        throw MALFORMED_STRUCT;
+      }
+      return json[idx];
+    }
+
+    private void expect(char c) throws SignatureVerificationException {
+      if (peek() != c) {
+        throw MALFORMED_STRUCT;
+      }
+      idx++;
+    }
+
+    private void skipWhitespace() {
+      while (idx < end
+          && (json[idx] == ' ' || json[idx] == '\n' || json[idx] == '\r' || json[idx] == '\t')) {
+        idx++;
+      }
+    }
+  }
+
+  /** Fields of version 5 payload used for verification */
+  static final class Payload {
+
+    private static final String RESULT = "result";
+    private static final String IP_V4 = "ipv4.ip";
+    private static final String IP_V6 = "ipv6.ip";
+    private static final String USER_AGENT = "b.ua";
+
+    private final long zoneId;
+    private final ByteSlice encrypted;
+    private String result;
+    private String ipV4;
+    private String ipV6;
+    private String userAgent;
+
+    private Payload(long zoneId, ByteSlice encrypted) {
+      this.zoneId = zoneId;
+      this.encrypted = encrypted;
+    }
+
+    private static boolean isField(String key) {
+      return RESULT.equals(key) || IP_V4.equals(key) || IP_V6.equals(key) || USER_AGENT.equals(key);
+    }
+
+    private void set(String key, String value) {
+      switch (key) {
+        case RESULT:
+          result = value;
+          break;
+        case IP_V4:
+          ipV4 = value;
+          break;
+        case IP_V6:
+          ipV6 = value;
+          break;
+        default:
+          userAgent = value;
+      }
+    }
+
+    long getZoneId() {
+      return zoneId;
+    }
+
+    /** @return encrypted payload, unique for each signature as it starts with random iv */
+    ByteSlice getEncrypted() {
+      return encrypted;
+    }
+
+    /** @return score (0, 3, 6 or 9) as written in payload, null if missing */
+    String getResult() {
+      return result;
+    }
+
+    String getIpV4() {
+      return ipV4;
+    }
+
+    String getIpV6() {
+      return ipV6;
+    }
+
+    String getUserAgent() {
+      return userAgent;
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+
+/**
+ * Feeds signature base ("verdict\nrequestTime\nsignatureTime\nipAddress\nuserAgent") into HMAC
+ * without building it as a string. Parts shared by all verdict and ip address candidates are
+ * encoded once per request into buffers owned by this object, and assembled once per ip address, so
+ * verdict candidates only differ by the first byte passed to {@link Mac}.
+ *
+ * <p>Instances keep mutable state and must be confined to a single thread.
+ */
+final class SignatureBase {
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  private final Mac mac;
+  private final byte[] digest;
+  private final CharsetEncoder userAgentEncoder =
+      StandardCharsets.UTF_8
+          .newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+  /** "\nrequestTime\nsignatureTime\n" */
+  private final byte[] times = new byte[2 * 11 + 3];
+
+  private int timesLength;
+
+  /** "\nuserAgent" encoded as UTF-8 */
+  private byte[] userAgent = new byte[INITIAL_CAPACITY];
+
+  private int userAgentLength;
+
+  /** "\nrequestTime\nsignatureTime\nipAddress\nuserAgent", everything but the verdict */
+  private byte[] rest = new byte[INITIAL_CAPACITY];
+
+  private int restLength;
+
+  SignatureBase(Mac mac) {
+    this.mac = mac;
+    this.digest = new byte[mac.getMacLength()];
+  }
+
+  /**
+   * Prepares parts of the base shared by all candidates of a single request
+   *
+   * @param requestTime epoch time in seconds
+   * @param signatureTime epoch time in seconds
+   * @param userAgent string with full description of user agent, or {@link ByteSequence} with its
+   *     UTF-8 bytes
+   */
+  void reset(int requestTime, int signatureTime, CharSequence userAgent) {
+    int idx = 0;
+    times[idx++] = '\n';
+    idx = writeDecimal(requestTime, times, idx);
+    times[idx++] = '\n';
+    idx = writeDecimal(signatureTime, times, idx);
+    times[idx++] = '\n';
+    timesLength = idx;
+
+    encodeUserAgent(userAgent == null ? "null" : userAgent);
+  }
+
+  /**
+   * Sets ip address part of the base
+   *
+   * @param ipAddress ip address as it should appear in the base
+   */
+  void setIpAddress(CharSequence ipAddress) {
+    int length = ipAddress.length();
+    int capacity = timesLength + length * 3 + userAgentLength;
+    if (rest.length < capacity) {
+      rest = new byte[capacity];
+    }
+
+    System.arraycopy(times, 0, rest, 0, timesLength);
+    int idx = timesLength;
+    for (int i = 0; i < length; i++) {
+      char c = ipAddress.charAt(i);
+      if (c >= 0x80) {
+        // Not an address for sure, but it still has to be hashed the same way as other text
+        byte[] encoded = ipAddress.toString().getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(encoded, 0, rest, timesLength, encoded.length);
+        idx = timesLength + encoded.length;
+        break;
+      }
+      rest[idx++] = (byte) c;
+    }
+
+    System.arraycopy(userAgent, 0, rest, idx, userAgentLength);
+    restLength = idx + userAgentLength;
+  }
+
+  /**
+   * @param verdict single digit verdict candidate
+   * @param token expected HMAC of the base
+   * @return true if HMAC of the base built for given verdict equals the token
+   */
+  boolean matches(char verdict, ByteSlice token) {
+    mac.update((byte) verdict);
+    mac.update(rest, 0, restLength);
+
+    try {
+      mac.doFinal(digest, 0);
+    } catch (ShortBufferException exp) {
+      throw new IllegalStateException(exp.getMessage(), exp);
+    }
+
+    return token.contentEquals(digest);
+  }
+
+  private void encodeUserAgent(CharSequence userAgent) {
+    if (userAgent instanceof ByteSequence) {
+      int capacity = 1 + userAgent.length();
+      if (this.userAgent.length < capacity) {
+        this.userAgent = new byte[capacity];
+      }
+
+      this.userAgent[0] = '\n';
+      ((ByteSequence) userAgent).copyTo(this.userAgent, 1);
+      userAgentLength = capacity;
+      return;
+    }
+
+    int capacity = 1 + (int) (userAgent.length() * userAgentEncoder.maxBytesPerChar());
+    if (this.userAgent.length < capacity) {
+      this.userAgent = new byte[capacity];
+    }
+
+    this.userAgent[0] = '\n';
+    ByteBuffer out = ByteBuffer.wrap(this.userAgent, 1, this.userAgent.length - 1);
+    userAgentEncoder.reset();
+    userAgentEncoder.encode(CharBuffer.wrap(userAgent), out, true);
+    userAgentEncoder.flush(out);
+    userAgentLength = out.position();
+  }
+
+  /** Writes value same as String.valueOf(int) would, returns index after the last digit */
+  private static int writeDecimal(int value, byte[] buffer, int idx) {
+    long remaining = value;
+    if (remaining < 0) {
+      buffer[idx++] = '-';
+      remaining = -remaining;
+    }
+
+    int start = idx;
+    do {
+      buffer[idx++] = (byte) ('0' + remaining % 10);
+      remaining /= 10;
+    } while (remaining > 0);
+
+    for (int i = start, j = idx - 1; i < j; i++, j--) {
+      byte tmp = buffer[i];
+      buffer[i] = buffer[j];
+      buffer[j] = tmp;
+    }
+
+    return idx;
+  }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.SplittableRandom;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+
+/**
+ * Issues version 4 and 3 signatures, the inverse of the verifier, e.g. for offline load tests and
+ * round-trip checks without access to AdScore service. Only the token of the generator's sign role
+ * is written.
+ *
+ * <p>Instances are not thread-safe.
+ *
+ * <pre>{@code
+ * SignatureGenerator generator = new SignatureGenerator("customer", key);
+ * String signature = generator.generate("ok", now, now, "73.109.57.137", null, userAgent);
+ * }</pre>
+ */
+public final class SignatureGenerator {
+
+  private static final Base64.Encoder BASE64 = Base64.getUrlEncoder().withoutPadding();
+
+  private static final int SIGN_TYPE_HMAC = 1;
+
+  /** Timestamp of the first row generated in bulk, rows are one second apart */
+  private static final long BULK_START_TIME = 1_600_000_000L;
+
+  /** How long before row timestamp expired rows are issued, longer than any sensible expiry */
+  private static final int EXPIRED_AGE = 24 * 60 * 60;
+
+  private static final String[] USER_AGENTS = {
+    "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/%d.0.%d.%d"
+        + " Safari/537.36",
+    "Mozilla/5.0 (Linux; Android 9; SM-J530F) AppleWebKit/537.36 (KHTML, like Gecko)"
+        + " Chrome/%d.0.%d.%d Mobile Safari/537.36",
+    "Mozilla/5.0 (iPhone; CPU iPhone OS 13_3 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko)"
+        + " Version/%d.0 Mobile/15E%d Safari/604.%d",
+    "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.15; rv:%d.0) Gecko/20100101 Firefox/%d.%d"
+  };
+
+  private final int role;
+  private final Mac mac;
+  private final byte[] token;
+
+  /**
+   * @param signRole role of the token written, 'customer' or 'master'
+   * @param key base64 encoded zone key
+   * @throws IllegalArgumentException if sign role is unknown or key is not valid
+   */
+  public SignatureGenerator(String signRole, String key) {
+    this(signRole, key, true);
+  }
+
+  /**
+   * @param signRole role of the token written, 'customer' or 'master'
+   * @param key zone key
+   * @param isKeyBase64Encoded boolean defining if passed key is base64 encoded or not
+   * @throws IllegalArgumentException if sign role is unknown or key is not valid
+   */
+  public SignatureGenerator(String signRole, String key, boolean isKeyBase64Encoded) {
+    this(
+        signRole,
+        isKeyBase64Encoded
+            ? SignatureVerifierUtils.keyDecode(key)
+            : key.getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  SignatureGenerator(String signRole, byte[] key) {
+    this.role = DecodedSignature.roleIndex(signRole);
+    if (role < 0) {
+      throw new IllegalArgumentException("Unknown sign role: " + signRole);
+    }
+
+    try {
+      this.mac = SignatureVerifierUtils.createMac(key);
+    } catch (GeneralSecurityException exp) {
+      throw new IllegalArgumentException(exp.getMessage(), exp);
+    }
+    this.token = new byte[mac.getMacLength()];
+  }
+
+  /**
+   * @param verdict one of 'ok', 'junk', 'proxy' or 'bot'
+   * @param requestTime epoch time in seconds
+   * @param signatureTime epoch time in seconds
+   * @param ipV4Address ip4 address the signature is issued for
+   * @param ipV6Address ip6 address the signature is additionally issued for, null if none
+   * @param userAgent full description of user agent
+   * @return version 4 signature
+   * @throws IllegalArgumentException if verdict is unknown or ip6 address is not valid
+   */
+  public String generate(
+      String verdict,
+      int requestTime,
+      int signatureTime,
+      String ipV4Address,
+      String ipV6Address,
+      String userAgent) {
+    byte code = verdictCode(verdict);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+    out.write(4);
+    out.write(ipV6Address != null ? 5 : 4);
+    writeInt(out, 0x00, requestTime);
+    writeInt(out, 0x01, signatureTime);
+    out.write(0x80 | role);
+    out.write(SIGN_TYPE_HMAC);
+    writeToken(out, 0xC0 | role, code, requestTime, signatureTime, ipV4Address, userAgent);
+    if (ipV6Address != null) {
+      String canonical;
+      try {
+        canonical = IpV6Utils.canonicalize(ipV6Address);
+      } catch (SignatureVerificationException exp) {
+        canonical = null;
+      }
+      if (canonical == null) {
+        throw new IllegalArgumentException("Invalid ip6 address: " + ipV6Address);
+      }
+      writeToken(out, 0xC2 | role, code, requestTime, signatureTime, canonical, userAgent);
+    }
+
+    return BASE64.encodeToString(out.toByteArray());
+  }
+
+  /**
+   * @param verdict one of 'ok', 'junk', 'proxy' or 'bot'
+   * @param requestTime epoch time in seconds
+   * @param signatureTime epoch time in seconds
+   * @param ipAddress ip4 address the signature is issued for
+   * @param userAgent full description of user agent
+   * @return version 3 signature
+   * @throws IllegalArgumentException if verdict is unknown
+   */
+  public String generate3(
+      String verdict, int requestTime, int signatureTime, String ipAddress, String userAgent) {
+    byte code = verdictCode(verdict);
+    hmac(code, requestTime, signatureTime, ipAddress, userAgent);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(96);
+    out.write(3);
+    writeInt(out, requestTime);
+    writeInt(out, signatureTime);
+    for (int tokenRole = DecodedSignature.MASTER;
+        tokenRole <= DecodedSignature.CUSTOMER;
+        tokenRole++) {
+      int length = tokenRole == role ? token.length : 0;
+      out.write(tokenRole == role ? SIGN_TYPE_HMAC : 0);
+      out.write(length >>> 8);
+      out.write(length);
+      out.write(token, 0, length);
+    }
+
+    return BASE64.encodeToString(out.toByteArray());
+  }
+
+  /**
+   * Writes rows of varied signatures in the input format of {@link BulkVerifier}: verdict mix, ip4
+   * and ip6 addresses, forwarded chains of 1-5 addresses, version 3 signatures, expired and
+   * malformed ones. Rows are one second apart and depend only on the seed.
+   *
+   * @param output file rows are written to, overwritten if exists
+   * @param expected file receiving output {@link BulkVerifier} is expected to produce for the rows
+   *     with the same key and sign role and expiry shorter than a day, null if not needed
+   * @param rows number of rows
+   * @param seed seed of random generator
+   * @throws IOException when files cannot be written
+   */
+  public void generateBulk(Path output, Path expected, long rows, long seed) throws IOException {
+    SplittableRandom random = new SplittableRandom(seed);
+    SignatureGenerator otherKey =
+        new SignatureGenerator(
+            role == DecodedSignature.CUSTOMER ? "customer" : "master",
+            Long.toString(seed).getBytes(StandardCharsets.ISO_8859_1));
+
+    try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8);
+        Writer expectedOut =
+            expected != null
+                ? Files.newBufferedWriter(expected, StandardCharsets.UTF_8)
+                : new BufferedWriter(NullWriter.INSTANCE)) {
+      for (long row = 0; row < rows; row++) {
+        writeRow(out, expectedOut, random, otherKey, BULK_START_TIME + row);
+      }
+    }
+  }
+
+  private void writeRow(
+      Writer out, Writer expected, SplittableRandom random, SignatureGenerator otherKey, long now)
+      throws IOException {
+    String verdict = randomVerdict(random);
+    String userAgent = randomUserAgent(random);
+    String ipV4 = randomIpV4(random);
+    String ipV6 = random.nextInt(4) == 0 ? randomIpV6(random) : null;
+    String[] chain = new String[1 + random.nextInt(5)];
+    for (int i = 0; i < chain.length; i++) {
+      chain[i] = randomIpV4(random);
+    }
+    String matching = ipV6 != null ? ipV6 : ipV4;
+    chain[random.nextInt(chain.length)] = matching;
+
+    int kind = random.nextInt(100);
+    int time = kind < 3 ? (int) now - EXPIRED_AGE : (int) now;
+    String signature;
+    String outcome;
+    if (kind < 3) {
+      signature = generate(verdict, time, time, ipV4, ipV6, userAgent);
+      outcome = "expired\t";
+    } else if (kind < 8) {
+      matching = ipV4;
+      chain[random.nextInt(chain.length)] = matching;
+      signature = generate3(verdict, time, time, ipV4, userAgent);
+      outcome = verdict + "\t" + matching;
+    } else if (kind < 9) {
+      signature = otherKey.generate(verdict, time, time, ipV4, ipV6, userAgent);
+      outcome = error(SignatureVerificationError.NO_VERDICT, "");
+    } else if (kind < 10) {
+      signature = BASE64.encodeToString(new byte[] {4, 7});
+      outcome = error(SignatureVerificationError.PREMATURE_END, " 0x01");
+    } else if (kind < 11) {
+      signature = BASE64.encodeToString(new byte[] {9, 1, 2, 3});
+      outcome = error(SignatureVerificationError.UNSUPPORTED_VERSION, "");
+    } else {
+      signature = generate(verdict, time, time, ipV4, ipV6, userAgent);
+      outcome = verdict + "\t" + matching;
+    }
+
+    out.write(signature);
+    out.write('\t');
+    out.write(userAgent);
+    out.write('\t');
+    out.write(String.join(",", chain));
+    out.write('\t');
+    out.write(Long.toString(now));
+    out.write('\n');
+
+    expected.write(outcome);
+    expected.write('\n');
+  }
+
+  private static String error(SignatureVerificationError code, String detail) {
+    return "error\t" + code.getMessage() + detail;
+  }
+
+  private static String randomVerdict(SplittableRandom random) {
+    int value = random.nextInt(100);
+    if (value < 70) {
+      return "ok";
+    }
+    if (value < 80) {
+      return "junk";
+    }
+    return value < 90 ? "proxy" : "bot";
+  }
+
+  private static String randomUserAgent(SplittableRandom random) {
+    return String.format(
+        USER_AGENTS[random.nextInt(USER_AGENTS.length)],
+        60 + random.nextInt(40),
+        random.nextInt(5000),
+        random.nextInt(200));
+  }
+
+  private static String randomIpV4(SplittableRandom random) {
+    return (1 + random.nextInt(223))
+        + "."
+        + random.nextInt(256)
+        + "."
+        + random.nextInt(256)
+        + "."
+        + (1 + random.nextInt(254));
+  }
+
+  /** @return ip6 address in canonical form, as reported by verifier */
+  private static String randomIpV6(SplittableRandom random) {
+    return String.format(
+        "2001:db8:%x:%x::%x",
+        random.nextInt(0x10000), 1 + random.nextInt(0xFFFF), 1 + random.nextInt(0xFFFF));
+  }
+
+  private static byte verdictCode(String verdict) {
+    Verdict known = Verdict.ofName(verdict);
+    if (known == null) {
+      throw new IllegalArgumentException("Unknown verdict: " + verdict);
+    }
+    return (byte) SignatureVerifierService.VERDICT_CODES[known.ordinal()];
+  }
+
+  private void hmac(
+      byte code, int requestTime, int signatureTime, String ipAddress, String userAgent) {
+    byte[] rest =
+        ("\n" + requestTime + "\n" + signatureTime + "\n" + ipAddress + "\n" + userAgent)
+            .getBytes(StandardCharsets.UTF_8);
+    mac.update(code);
+    mac.update(rest);
+
+    try {
+      mac.doFinal(token, 0);
+    } catch (ShortBufferException exp) {
+      throw new IllegalStateException(exp.getMessage(), exp);
+    }
+  }
+
+  private void writeToken(
+      ByteArrayOutputStream out,
+      int fieldId,
+      byte code,
+      int requestTime,
+      int signatureTime,
+      String ipAddress,
+      String userAgent) {
+    hmac(code, requestTime, signatureTime, ipAddress, userAgent);
+    out.write(fieldId);
+    out.write(token.length >>> 8);
+    out.write(token.length);
+    out.write(token, 0, token.length);
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int fieldId, int value) {
+    out.write(fieldId);
+    writeInt(out, value);
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  /** Discards everything, used when expected outcomes are not needed */
+  private static final class NullWriter extends Writer {
+
+    private static final NullWriter INSTANCE = new NullWriter();
+
+    @Override
+    public void write(char[] buffer, int offset, int length) {}
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+
+  /**
+   * Usage: {@code SignatureGenerator signRole base64Key rows output [expected [seed]]}, rows are
+   * written in the input format of {@link BulkVerifier}, expected outcomes in its output format.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 4 || args.length > 6) {
+      System.err.println(
+          "Usage: SignatureGenerator signRole base64Key rows output [expected [seed]]");
+      System.exit(2);
+    }
+
+    SignatureGenerator generator = new SignatureGenerator(args[0], args[1]);
+    long rows = Long.parseLong(args[2]);
+    Path expected = args.length > 4 ? Paths.get(args[4]) : null;
+    long seed = args.length > 5 ? Long.parseLong(args[5]) : System.nanoTime();
+
+    long start = System.nanoTime();
+    generator.generateBulk(Paths.get(args[3]), expected, rows, seed);
+    long millis = (System.nanoTime() - start) / 1_000_000;
+    System.out.println(String.format("%d rows generated in %d ms", rows, millis));
+  }
+}
@@ -27,7 +27,7 @@ package com.adscore.signature;
 /** @author Łukasz Hyła <lhyla@iterative.pl> */
 class SignatureRangeException extends BaseSignatureVerificationException {
 
-  public SignatureRangeException(String s) {
-    super(s);
+  SignatureRangeException(SignatureVerificationError code) {
+    super(code, null);
   }
 }
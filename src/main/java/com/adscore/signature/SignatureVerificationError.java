@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+/**
+ * Reason of failed verification, see {@link SignatureVerificationResult#getErrorCode()}. Message of
+ * each code is the same as returned by {@link SignatureVerificationResult#getError()}, which may
+ * additionally contain details, e.g. offending ip address.
+ */
+public enum SignatureVerificationError {
+  /** Signature is empty or is not valid base64 */
+  INVALID_BASE64_PAYLOAD("invalid base64 payload"),
+  /** Signature is neither version 3, 4 nor 5 */
+  UNSUPPORTED_VERSION("unsupported version"),
+  /** Signature is truncated */
+  PREMATURE_END("premature end of signature"),
+  MASTER_TOKEN_LENGTH_MISMATCH("master token length mismatch"),
+  CUSTOMER_TOKEN_LENGTH_MISMATCH("customer token length mismatch"),
+  UNSUPPORTED_VARIABLE_TYPE("unsupported variable type"),
+  /** Signature does not contain token of verifier's sign role */
+  SIGN_ROLE_MISMATCH("sign role signature mismatch"),
+  UNSUPPORTED_SIGNATURE("unsupported signature"),
+  UNRECOGNIZED_SIGNATURE("unrecognized signature"),
+  INVALID_ADDRESS("Invalid address"),
+  /** None of verdicts matched for any of ip addresses, e.g. signature was issued with other key */
+  NO_VERDICT("no verdict"),
+  /** Encryption method or struct of version 5 payload is not supported, or struct is malformed */
+  UNSUPPORTED_PAYLOAD("unsupported payload"),
+  /** Version 5 payload cannot be decrypted, e.g. signature was issued with other key */
+  DECRYPTION_FAILED("decryption failed"),
+  /** Version 5 signature was issued for other zone than the verifier is bound to */
+  ZONE_MISMATCH("zone mismatch"),
+  /** Zone key is not valid */
+  INVALID_KEY("invalid key"),
+  /** Zone is not known to {@link ZoneKeyRegistry} */
+  UNKNOWN_ZONE("unknown zone"),
+  /** Any other failure, error message describes it */
+  UNEXPECTED("unexpected error");
+
+  private final String message;
+
+  SignatureVerificationError(String message) {
+    this.message = message;
+  }
+
+  /** @return message describing the error, without details */
+  public String getMessage() {
+    return message;
+  }
+}
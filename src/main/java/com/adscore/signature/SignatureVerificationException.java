@@ -27,7 +27,12 @@ package com.adscore.signature;
 /** @author Łukasz Hyła <lhyla@iterative.pl> */
 class SignatureVerificationException extends BaseSignatureVerificationException {
 
-  public SignatureVerificationException(String s) {
-    super(s);
+  SignatureVerificationException(SignatureVerificationError code) {
+    super(code, null);
+  }
+
+  SignatureVerificationException(
+      SignatureVerificationError code, String detailFormat, Object... detailArgs) {
+    super(code, detailFormat, detailArgs);
   }
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Servlet filter verifying signature sent with each request and storing the result as request
+ * attribute {@link #RESULT_ATTRIBUTE}. Requests without signature get no attribute. Filter only
+ * annotates requests, it is up to the application what to do with them.
+ *
+ * <p>Candidate addresses are taken from remote address and X-Forwarded-For headers, which are
+ * parsed lazily, only until matching address is found, see {@link ForwardedAddresses}.
+ *
+ * <p>Filter can be created programmatically with a verifier or declared in web.xml with init
+ * parameters: "key" (base64 encoded zone key, required), "signRole" (default "customer"), "expiry"
+ * (seconds, default 60, empty to disable), "signatureHeader" (default {@link
+ * #DEFAULT_SIGNATURE_HEADER}) and "order" (name of {@link ForwardedAddresses.Order}, default
+ * REMOTE_FIRST).
+ */
+public class SignatureVerificationFilter implements Filter {
+
+  /** Name of request attribute holding {@link SignatureVerificationResult} */
+  public static final String RESULT_ATTRIBUTE = SignatureVerificationResult.class.getName();
+
+  public static final String DEFAULT_SIGNATURE_HEADER = "X-Adscore-Signature";
+
+  private static final String FORWARDED_FOR_HEADER = "X-Forwarded-For";
+  private static final String USER_AGENT_HEADER = "User-Agent";
+
+  private ZoneVerifier verifier;
+  private String signatureHeader;
+  private ForwardedAddresses.Order order;
+
+  /** Creates filter configured with init parameters, see class description */
+  public SignatureVerificationFilter() {}
+
+  /**
+   * @param verifier verifier of the zone
+   * @param signatureHeader name of the header containing signature
+   * @param order order in which candidate addresses are tried
+   */
+  public SignatureVerificationFilter(
+      ZoneVerifier verifier, String signatureHeader, ForwardedAddresses.Order order) {
+    this.verifier = verifier;
+    this.signatureHeader = signatureHeader;
+    this.order = order;
+  }
+
+  @Override
+  public void init(FilterConfig config) throws ServletException {
+    if (verifier != null) {
+      return;
+    }
+
+    String key = config.getInitParameter("key");
+    if (key == null) {
+      throw new ServletException("init parameter key is required");
+    }
+
+    String signRole = parameter(config, "signRole", "customer");
+    String expiry =
+        parameter(config, "expiry", String.valueOf(SignatureVerifier.DEFAULT_EXPIRY_TIME_SEC));
+
+    try {
+      verifier =
+          new ZoneVerifier(signRole, key, true, expiry.isEmpty() ? null : Integer.valueOf(expiry));
+      order = ForwardedAddresses.Order.valueOf(parameter(config, "order", "REMOTE_FIRST"));
+    } catch (IllegalArgumentException exp) {
+      throw new ServletException(exp.getMessage(), exp);
+    }
+    signatureHeader = parameter(config, "signatureHeader", DEFAULT_SIGNATURE_HEADER);
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    if (request instanceof HttpServletRequest) {
+      HttpServletRequest httpRequest = (HttpServletRequest) request;
+
+      String signature = httpRequest.getHeader(signatureHeader);
+      if (signature != null && !signature.isEmpty()) {
+        ForwardedAddresses addresses =
+            ForwardedAddresses.of(
+                httpRequest.getRemoteAddr(),
+                order,
+                headers(httpRequest.getHeaders(FORWARDED_FOR_HEADER)));
+
+        request.setAttribute(
+            RESULT_ATTRIBUTE,
+            verifier.verifyCandidates(
+                signature, httpRequest.getHeader(USER_AGENT_HEADER), addresses));
+      }
+    }
+
+    chain.doFilter(request, response);
+  }
+
+  @Override
+  public void destroy() {}
+
+  private static String parameter(FilterConfig config, String name, String defaultValue) {
+    String value = config.getInitParameter(name);
+    return value != null ? value.trim() : defaultValue;
+  }
+
+  private static String[] headers(Enumeration<String> values) {
+    if (values == null || !values.hasMoreElements()) {
+      return new String[0];
+    }
+
+    List<String> headers = new ArrayList<>(1);
+    while (values.hasMoreElements()) {
+      headers.add(values.nextElement());
+    }
+    return headers.toArray(new String[0]);
+  }
+}
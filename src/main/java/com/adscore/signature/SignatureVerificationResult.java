@@ -25,76 +25,221 @@
 package com.adscore.signature;
 
 /**
- * Representation of signature verification results
+ * Representation of signature verification results. Results are immutable and keep verdict, times
+ * and flags as primitives. Results of expired signatures and of failures without details are
+ * preallocated and shared by all verifications ending the same way.
  *
  * @author Łukasz Hyła <lhyla@iterative.pl>
  */
 public class SignatureVerificationResult {
 
-  private String ipAddress;
-  private String verdict;
+  private static final SignatureVerificationResult EXPIRED =
+      new SignatureVerificationResult(null, null, -1, false, 0, 0, true, null, null, null, null);
 
-  private Integer score;
-  private Integer requestTime;
-  private Integer signatureTime;
+  /** Results of failures without details, indexed by ordinal of the error code */
+  private static final SignatureVerificationResult[] ERRORS = errors();
 
-  private Boolean expired;
+  private final Verdict verdict;
+  private final String ipAddress;
+  private final int ipAddressIndex;
 
+  /** False for results of version 5 signatures, which carry no times */
+  private final boolean hasTimes;
+
+  private final int requestTime;
+  private final int signatureTime;
+
+  private final boolean expired;
+  private final Boolean replayed;
+
+  private final SignatureVerificationError errorCode;
+  private final BaseSignatureVerificationException errorSignal;
+
+  /** Message of the error, built from error signal on first call of {@link #getError()} */
   private String error;
 
-  public String getIpAddress() {
-    return ipAddress;
+  /**
+   * Creates empty result, with neither verdict nor error.
+   *
+   * @deprecated results are created by verifiers, this constructor is kept only for compatibility
+   */
+  @Deprecated
+  public SignatureVerificationResult() {
+    this(null, null, -1, false, 0, 0, false, null, null, null, null);
   }
 
-  void setIpAddress(String ipAddress) {
+  private SignatureVerificationResult(
+      Verdict verdict,
+      String ipAddress,
+      int ipAddressIndex,
+      boolean hasTimes,
+      int requestTime,
+      int signatureTime,
+      boolean expired,
+      Boolean replayed,
+      SignatureVerificationError errorCode,
+      BaseSignatureVerificationException errorSignal,
+      String error) {
+    this.verdict = verdict;
     this.ipAddress = ipAddress;
+    this.ipAddressIndex = ipAddressIndex;
+    this.hasTimes = hasTimes;
+    this.requestTime = requestTime;
+    this.signatureTime = signatureTime;
+    this.expired = expired;
+    this.replayed = replayed;
+    this.errorCode = errorCode;
+    this.errorSignal = errorSignal;
+    this.error = error;
   }
 
-  public String getVerdict() {
-    return verdict;
+  private static SignatureVerificationResult[] errors() {
+    SignatureVerificationError[] codes = SignatureVerificationError.values();
+    SignatureVerificationResult[] errors = new SignatureVerificationResult[codes.length];
+    for (SignatureVerificationError code : codes) {
+      errors[code.ordinal()] =
+          new SignatureVerificationResult(
+              null, null, -1, false, 0, 0, false, null, code, null, code.getMessage());
+    }
+    return errors;
   }
 
-  void setVerdict(String verdict) {
-    this.verdict = verdict;
+  /**
+   * @param ipAddress matching ip address, canonicalized if it is ip6
+   * @param ipAddressIndex position of matching address among candidates passed by the caller
+   * @param replayed result of replay detection, null if replays are not detected
+   */
+  static SignatureVerificationResult verified(
+      Verdict verdict,
+      String ipAddress,
+      int ipAddressIndex,
+      int requestTime,
+      int signatureTime,
+      Boolean replayed) {
+    return new SignatureVerificationResult(
+        verdict,
+        ipAddress,
+        ipAddressIndex,
+        true,
+        requestTime,
+        signatureTime,
+        false,
+        replayed,
+        null,
+        null,
+        null);
   }
 
-  public Integer getScore() {
-    return score;
+  /** Result of version 5 signature, which has no request and signature times */
+  static SignatureVerificationResult verified(
+      Verdict verdict, String ipAddress, int ipAddressIndex, Boolean replayed) {
+    return new SignatureVerificationResult(
+        verdict, ipAddress, ipAddressIndex, false, 0, 0, false, replayed, null, null, null);
   }
 
-  void setScore(Integer score) {
-    this.score = score;
+  static SignatureVerificationResult expired() {
+    return EXPIRED;
   }
 
-  public Integer getRequestTime() {
-    return requestTime;
+  static SignatureVerificationResult error(SignatureVerificationError errorCode) {
+    return ERRORS[errorCode.ordinal()];
   }
 
-  void setRequestTime(Integer requestTime) {
-    this.requestTime = requestTime;
+  static SignatureVerificationResult error(BaseSignatureVerificationException signal) {
+    if (!signal.hasDetails()) {
+      return error(signal.getCode());
+    }
+    return new SignatureVerificationResult(
+        null, null, -1, false, 0, 0, false, null, signal.getCode(), signal, null);
   }
 
-  public Integer getSignatureTime() {
-    return signatureTime;
+  /** @param error message with details of the error, if null message of the code is used */
+  static SignatureVerificationResult error(SignatureVerificationError errorCode, String error) {
+    if (error == null) {
+      return error(errorCode);
+    }
+    return new SignatureVerificationResult(
+        null, null, -1, false, 0, 0, false, null, errorCode, null, error);
   }
 
-  void setSignatureTime(Integer signatureTime) {
-    this.signatureTime = signatureTime;
+  /** @return matching ip address, canonicalized if it is ip6, null if signature was not verified */
+  public String getIpAddress() {
+    return ipAddress;
+  }
+
+  /**
+   * @return position of matching ip address among addresses passed to verify (or in order of
+   *     iteration of candidates), -1 if signature was not verified
+   */
+  public int getIpAddressIndex() {
+    return ipAddressIndex;
+  }
+
+  /** @return name of the verdict, null if signature was not verified */
+  public String getVerdict() {
+    return verdict != null ? verdict.getName() : null;
+  }
+
+  /** @return verdict, null if signature was not verified */
+  public Verdict getVerdictType() {
+    return verdict;
+  }
+
+  public Integer getScore() {
+    return verdict != null ? verdict.getScore() : null;
+  }
+
+  public Integer getRequestTime() {
+    return hasTimes ? requestTime : null;
+  }
+
+  public Integer getSignatureTime() {
+    return hasTimes ? signatureTime : null;
   }
 
+  /** @return true if signature was expired, null otherwise */
   public Boolean getExpired() {
+    return expired ? Boolean.TRUE : null;
+  }
+
+  /** @return true if signature was expired */
+  public boolean isExpired() {
     return expired;
   }
 
-  void setExpired(Boolean expired) {
-    this.expired = expired;
+  /**
+   * @return true if the same signature was already verified recently, null if replays are not
+   *     detected, see {@link ZoneVerifier#withReplayDetector(ReplayDetector)}
+   */
+  public Boolean getReplayed() {
+    return replayed;
   }
 
+  /** @return reason of failed verification or null if signature was verified */
+  public SignatureVerificationError getErrorCode() {
+    return errorCode;
+  }
+
+  /** @return message describing reason of failed verification, built on first call */
   public String getError() {
+    if (error == null && errorSignal != null) {
+      error = errorSignal.getMessage();
+    }
     return error;
   }
 
-  void setError(String error) {
-    this.error = error;
+  /** @return true if result carries request and signature times, i.e. verified version 3 or 4 */
+  boolean hasTimes() {
+    return hasTimes;
+  }
+
+  /** @return request time, valid only if {@link #getRequestTime()} is not null */
+  int requestTime() {
+    return requestTime;
+  }
+
+  /** @return signature time, valid only if {@link #getSignatureTime()} is not null */
+  int signatureTime() {
+    return signatureTime;
   }
 }
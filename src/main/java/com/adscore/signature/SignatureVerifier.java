@@ -28,6 +28,9 @@ package com.adscore.signature;
  * Entry point of AdScore signature verification library. It expose verify method allowing to verify
  * AdScore signature against given set of ipAddress(es) for given zone.
  *
+ * <p>Each call decodes the key and prepares HMAC from scratch. When many signatures of the same
+ * zone are verified, use {@link ZoneVerifier} instead.
+ *
  * @author Łukasz Hyła <lhyla@iterative.pl>
  */
 public class SignatureVerifier {
@@ -140,8 +143,17 @@ public class SignatureVerifier {
       Integer expiry,
       String... ipAddresses) {
 
-    return new SignatureVerifierService()
-        .verifySignature(
-            signature, userAgent, signRole, key, isKeyBase64Encoded, expiry, ipAddresses);
+    // Single use, so statistics of adaptive candidate order would never pay off
+    SignatureVerifierService service;
+    try {
+      service =
+          new SignatureVerifierService(
+              signRole, key, isKeyBase64Encoded, expiry, CandidateOrder.FIXED);
+    } catch (IllegalArgumentException exp) {
+      return SignatureVerificationResult.error(
+          SignatureVerificationError.INVALID_KEY, exp.getMessage());
+    }
+
+    return service.verifySignature(signature, userAgent, ipAddresses);
   }
 }
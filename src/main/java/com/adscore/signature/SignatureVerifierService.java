@@ -24,145 +24,599 @@
 
 package com.adscore.signature;
 
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.StringJoiner;
+import java.util.List;
+import javax.crypto.Mac;
 
 /**
- * Core logic of signature verifier
+ * Core logic of signature verifier. Instance is bound to a single zone key and sign role, holds
+ * already initialized HMAC and can be safely shared between threads.
  *
  * @author Łukasz Hyła <lhyla@iterative.pl>
  */
 public class SignatureVerifierService {
 
-  private static final HashMap<Integer, Field> fieldIds =
-      new HashMap<Integer, Field>() {
-        {
-          put(0x00, new Field("requestTime", "ulong"));
-          put(0x01, new Field("signatureTime", "ulong"));
-          put(0x40, new Field(null, "ushort"));
-          put(0x80, new Field("masterSignType", "uchar"));
-          put(0x81, new Field("customerSignType", "uchar"));
-          put(0xC0, new Field("masterToken", "string"));
-          put(0xC1, new Field("customerToken", "string"));
-          put(0xC2, new Field("masterTokenV6", "string"));
-          put(0xC3, new Field("customerTokenV6", "string"));
-        }
-      };
-
-  private static final HashMap<String, String> results =
-      new HashMap<String, String>() {
-        {
-          put("0", "ok");
-          put("3", "junk");
-          put("6", "proxy");
-          put("9", "bot");
-        }
-      };
+  private static final UnpackProgram V3_HEADER =
+      Unpacker.compile("Cversion/NrequestTime/NsignatureTime/CmasterSignType/nmasterTokenLength");
+  private static final UnpackProgram V3_CUSTOMER_HEADER =
+      Unpacker.compile("CcustomerSignType/ncustomerTokenLength");
 
-  SignatureVerificationResult verifySignature(
-      String signature,
-      String userAgent,
+  /** Field ids are grouped by type, which is encoded in two most significant bits of the id */
+  private static final int FIELD_TYPE_MASK = 0xC0;
+
+  private static final int FIELD_TYPE_ULONG = 0x00;
+  private static final int FIELD_TYPE_USHORT = 0x40;
+  private static final int FIELD_TYPE_UCHAR = 0x80;
+  private static final int FIELD_TYPE_STRING = 0xC0;
+
+  private static final int FIELD_REQUEST_TIME = 0x00;
+  private static final int FIELD_SIGNATURE_TIME = 0x01;
+
+  /** Set on sign type and token field ids of customer role, cleared for master role */
+  private static final int FIELD_ROLE_MASK = 0x01;
+
+  /** Set on token field ids which are related to ip6 addresses */
+  private static final int FIELD_V6_MASK = 0x02;
+
+  /** Preallocated failures of parsing, thrown without filling stack trace */
+  private static final SignatureVerificationException INVALID_BASE64_PAYLOAD =
+      new SignatureVerificationException(SignatureVerificationError.INVALID_BASE64_PAYLOAD);
+
+  private static final SignatureRangeException UNSUPPORTED_VERSION =
+      new SignatureRangeException(SignatureVerificationError.UNSUPPORTED_VERSION);
+
+  private static final SignatureVerificationException PREMATURE_END =
+      new SignatureVerificationException(SignatureVerificationError.PREMATURE_END);
+  private static final SignatureVerificationException PREMATURE_END_0X01 = prematureEnd(0x01);
+  private static final SignatureVerificationException PREMATURE_END_0X02 = prematureEnd(0x02);
+  private static final SignatureVerificationException PREMATURE_END_0X03 = prematureEnd(0x03);
+  private static final SignatureVerificationException PREMATURE_END_0X04 = prematureEnd(0x04);
+  private static final SignatureVerificationException PREMATURE_END_0X05 = prematureEnd(0x05);
+  private static final SignatureVerificationException PREMATURE_END_0X06 = prematureEnd(0x06);
+
+  private static final SignatureVerificationException UNSUPPORTED_VARIABLE_TYPE =
+      new SignatureVerificationException(SignatureVerificationError.UNSUPPORTED_VARIABLE_TYPE);
+
+  /** Verdict candidates, signature base starts with the code, indexed same as {@link Verdict} */
+  static final char[] VERDICT_CODES = {'0', '3', '6', '9'};
+
+  private final String signRole;
+  private final Integer expiry;
+  private final byte[] key;
+
+  /**
+   * HMAC initialized once with zone key. It is never used directly, each thread works on its own
+   * copy which is cheaper to obtain than a new instance (no provider lookup and key setup).
+   */
+  private final Mac macPrototype;
+
+  private final ThreadLocal<SignatureBase> signatureBase =
+      ThreadLocal.withInitial(() -> new SignatureBase(newMac()));
+
+  private final VerificationListener listener;
+
+  /** Detector of replayed signatures, null if replays are not detected */
+  private final ReplayDetector replayDetector;
+
+  private final CandidateOrder candidateOrder;
+
+  private final Signature5Decoder signature5Decoder;
+
+  /** Id of the zone version 5 signatures have to be issued for, null if not checked */
+  private final Long zoneId;
+
+  /**
+   * @param signRole string which specifies if we operate in customer or master role
+   * @param key raw (already decoded) zone key
+   * @param expiry how long request and signature are valid (in seconds), null if not checked
+   * @throws IllegalArgumentException if key cannot be used to initialize HMAC
+   */
+  SignatureVerifierService(String signRole, byte[] key, Integer expiry) {
+    this(signRole, key, expiry, CandidateOrder.FIXED);
+  }
+
+  /**
+   * @param candidateOrder order of candidates, e.g. {@link CandidateOrder#FIXED} for services used
+   *     only a few times, which would not benefit from statistics
+   */
+  SignatureVerifierService(
+      String signRole, byte[] key, Integer expiry, CandidateOrder candidateOrder) {
+    this.signRole = signRole;
+    this.expiry = expiry;
+    this.key = key.clone();
+    this.listener = VerificationListener.NO_OP;
+    this.replayDetector = null;
+    this.candidateOrder = candidateOrder;
+    this.zoneId = null;
+
+    try {
+      this.macPrototype = SignatureVerifierUtils.createMac(this.key);
+    } catch (GeneralSecurityException exp) {
+      throw new IllegalArgumentException(exp.getMessage(), exp);
+    }
+    this.signature5Decoder = new Signature5Decoder(this.key);
+  }
+
+  private SignatureVerifierService(
+      SignatureVerifierService other,
+      VerificationListener listener,
+      ReplayDetector replayDetector,
+      CandidateOrder candidateOrder,
+      Long zoneId) {
+    this.signRole = other.signRole;
+    this.expiry = other.expiry;
+    this.key = other.key;
+    this.macPrototype = other.macPrototype;
+    this.listener = listener;
+    this.replayDetector = replayDetector;
+    this.candidateOrder = candidateOrder;
+    this.signature5Decoder = other.signature5Decoder;
+    this.zoneId = zoneId;
+  }
+
+  /**
+   * @param signRole string which specifies if we operate in customer or master role
+   * @param key zone key, either raw or base64 encoded
+   * @param isKeyBase64Encoded boolean defining if passed key is base64 encoded or not
+   * @param expiry how long request and signature are valid (in seconds), null if not checked
+   * @throws IllegalArgumentException if key is not valid base64 or cannot be used to initialize
+   *     HMAC
+   */
+  SignatureVerifierService(
+      String signRole, String key, boolean isKeyBase64Encoded, Integer expiry) {
+    this(signRole, key, isKeyBase64Encoded, expiry, CandidateOrder.FIXED);
+  }
+
+  SignatureVerifierService(
       String signRole,
       String key,
       boolean isKeyBase64Encoded,
       Integer expiry,
-      String[] ipAddresses) {
-    key = isKeyBase64Encoded ? SignatureVerifierUtils.keyDecode(key) : key;
+      CandidateOrder candidateOrder) {
+    this(
+        signRole,
+        isKeyBase64Encoded
+            ? SignatureVerifierUtils.keyDecode(key)
+            : key.getBytes(StandardCharsets.ISO_8859_1),
+        expiry,
+        candidateOrder);
+  }
 
-    SignatureVerificationResult validationResult = new SignatureVerificationResult();
+  private Mac newMac() {
+    synchronized (macPrototype) {
+      try {
+        return (Mac) macPrototype.clone();
+      } catch (CloneNotSupportedException exp) {
+        // Provider does not support cloning, fall back to full initialization
+      }
+    }
 
     try {
-      HashMap<String, Object> data;
-      try {
-        data = parse4(signature);
-      } catch (BaseSignatureVerificationException exp) {
-        if (exp instanceof SignatureRangeException) {
-          data = parse3(signature);
-        } else {
+      return SignatureVerifierUtils.createMac(key);
+    } catch (GeneralSecurityException exp) {
+      throw new IllegalStateException(exp.getMessage(), exp);
+    }
+  }
 
-          validationResult.setError(exp.getMessage());
-          return validationResult;
-        }
+  Integer getExpiry() {
+    return expiry;
+  }
+
+  String getSignRole() {
+    return signRole;
+  }
+
+  /** @return id of the zone version 5 signatures must be issued for, null if not checked */
+  Long getZoneId() {
+    return zoneId;
+  }
+
+  /** @return raw zone key */
+  byte[] getKey() {
+    return key.clone();
+  }
+
+  /**
+   * @param listener listener to report to instead of the one of this service
+   * @return service of the same zone which does not detect replays nor update candidate order of
+   *     this service, e.g. to verify synthetic signatures
+   */
+  SignatureVerifierService detached(VerificationListener listener) {
+    return new SignatureVerifierService(
+        this,
+        listener,
+        null,
+        candidateOrder.isAdaptive() ? CandidateOrder.adaptive() : CandidateOrder.FIXED,
+        zoneId);
+  }
+
+  /**
+   * @param listener listener to report timings and outcomes to
+   * @return service of the same zone, reporting to given listener
+   */
+  SignatureVerifierService withListener(VerificationListener listener) {
+    return new SignatureVerifierService(this, listener, replayDetector, candidateOrder, zoneId);
+  }
+
+  /**
+   * @param replayDetector detector consulted after each successful verification, null to disable
+   * @return service of the same zone, detecting replayed signatures
+   */
+  SignatureVerifierService withReplayDetector(ReplayDetector replayDetector) {
+    return new SignatureVerifierService(this, listener, replayDetector, candidateOrder, zoneId);
+  }
+
+  /**
+   * @param zoneId id of the zone version 5 signatures have to be issued for, null to accept any
+   * @return service of the same zone key, rejecting version 5 signatures of other zones
+   */
+  SignatureVerifierService withZoneId(Long zoneId) {
+    return new SignatureVerifierService(this, listener, replayDetector, candidateOrder, zoneId);
+  }
+
+  /**
+   * @param adaptive true to try the most likely verdicts and ip address positions first, false to
+   *     try them in fixed order
+   * @return service of the same zone, trying candidates in given order
+   */
+  SignatureVerifierService withAdaptiveOrder(boolean adaptive) {
+    return new SignatureVerifierService(
+        this,
+        listener,
+        replayDetector,
+        adaptive ? CandidateOrder.adaptive() : CandidateOrder.FIXED,
+        zoneId);
+  }
+
+  /**
+   * @return service of the same zone, which keeps adapting order of verdicts, but tries ip
+   *     addresses in the order they were given, so that results do not depend on traffic verified
+   *     before
+   */
+  SignatureVerifierService withFixedPositions() {
+    return new SignatureVerifierService(
+        this,
+        listener,
+        replayDetector,
+        candidateOrder.isAdaptive() ? CandidateOrder.adaptiveVerdicts() : CandidateOrder.FIXED,
+        zoneId);
+  }
+
+  SignatureVerificationResult verifySignature(
+      String signature, String userAgent, String[] ipAddresses) {
+    return verifySignature(signature, userAgent, ipAddresses, currentEpochInSeconds());
+  }
+
+  /**
+   * @param signature signature, either string or other character sequence
+   * @param userAgent user agent, either character sequence or {@link ByteSequence} of UTF-8 bytes
+   * @param ipAddresses candidate addresses, tried in order chosen by {@link CandidateOrder}
+   * @param currentEpochInSeconds time to check expiry against, e.g. time the signature was logged
+   *     at when verifying historical traffic
+   */
+  SignatureVerificationResult verifySignature(
+      CharSequence signature,
+      CharSequence userAgent,
+      CharSequence[] ipAddresses,
+      long currentEpochInSeconds) {
+    int[] positions = positions(ipAddresses);
+    return verifySignature(
+        signature, userAgent, ordered(ipAddresses, positions), positions, currentEpochInSeconds);
+  }
+
+  /**
+   * @param ipAddresses candidate addresses, iterated only until one of them matches, so they can be
+   *     produced lazily
+   */
+  SignatureVerificationResult verifySignature(
+      CharSequence signature,
+      CharSequence userAgent,
+      Iterable<? extends CharSequence> ipAddresses,
+      long currentEpochInSeconds) {
+    return verifySignature(signature, userAgent, ipAddresses, null, currentEpochInSeconds);
+  }
+
+  SignatureVerificationResult verifySignature(
+      DecodedSignature data, String userAgent, String[] ipAddresses) {
+    long currentEpochInSeconds = currentEpochInSeconds();
+    int[] positions = positions(ipAddresses);
+    Iterable<? extends CharSequence> addresses = ordered(ipAddresses, positions);
+    if (listener == VerificationListener.NO_OP) {
+      return verifyDecoded(data, userAgent, addresses, positions, currentEpochInSeconds, false);
+    }
+
+    long start = System.nanoTime();
+    SignatureVerificationResult result =
+        verifyDecoded(data, userAgent, addresses, positions, currentEpochInSeconds, true);
+    listener.onResult(result, System.nanoTime() - start);
+
+    return result;
+  }
+
+  private SignatureVerificationResult verifySignature(
+      CharSequence signature,
+      CharSequence userAgent,
+      Iterable<? extends CharSequence> ipAddresses,
+      int[] positions,
+      long currentEpochInSeconds) {
+    if (listener == VerificationListener.NO_OP) {
+      return decodeAndVerify(
+          signature, userAgent, ipAddresses, positions, currentEpochInSeconds, false);
+    }
+
+    long start = System.nanoTime();
+    SignatureVerificationResult result =
+        decodeAndVerify(signature, userAgent, ipAddresses, positions, currentEpochInSeconds, true);
+    listener.onResult(result, System.nanoTime() - start);
+
+    return result;
+  }
+
+  /**
+   * Decodes signature using parser of its version
+   *
+   * @param signature signature already decoded from base64
+   * @return decoded signature fields
+   */
+  static DecodedSignature decode(byte[] signature) throws BaseSignatureVerificationException {
+    return decode(signature, DecodedSignature.ALL_ROLES);
+  }
+
+  /**
+   * @param signature signature already decoded from base64
+   * @param role index of the only role which tokens and sign type are needed, or {@link
+   *     DecodedSignature#ALL_ROLES}
+   * @return decoded signature fields, fields of other roles are skipped
+   */
+  static DecodedSignature decode(byte[] signature, int role)
+      throws BaseSignatureVerificationException {
+    if (signature.length == 0) {
+      throw INVALID_BASE64_PAYLOAD;
+    }
+
+    switch (signature[0]) {
+      case 4:
+        return parse4(signature, role);
+      case 3:
+        return parse3(signature, role);
+      default:
+        throw UNSUPPORTED_VERSION;
+    }
+  }
+
+  private SignatureVerificationResult decodeAndVerify(
+      CharSequence signature,
+      CharSequence userAgent,
+      Iterable<? extends CharSequence> ipAddresses,
+      int[] positions,
+      long currentEpochInSeconds,
+      boolean timed) {
+    DecodedSignature data;
+
+    try {
+      long stageStart = timed ? System.nanoTime() : 0;
+      byte[] decodedSignature = SignatureVerifierUtils.fromBase64(signature);
+      stageStart = stageFinished(timed, VerificationStage.BASE64_DECODE, stageStart);
+
+      if (decodedSignature.length > 0 && decodedSignature[0] == Signature5Decoder.VERSION) {
+        Signature5Decoder.Payload payload = signature5Decoder.decode(decodedSignature);
+        stageFinished(timed, VerificationStage.FIELD_PARSE, stageStart);
+        return verify5(payload, userAgent, ipAddresses, positions, timed);
       }
 
-      String signRoleToken = (String) data.get(signRole + "Token");
-      if (signRoleToken == null || signRoleToken.length() == 0) {
+      data = decode(decodedSignature, DecodedSignature.roleIndex(signRole));
+      stageFinished(timed, VerificationStage.FIELD_PARSE, stageStart);
+    } catch (BaseSignatureVerificationException exp) {
+
+      return SignatureVerificationResult.error(exp);
+    } catch (IllegalArgumentException exp) {
+
+      return SignatureVerificationResult.error(
+          SignatureVerificationError.INVALID_BASE64_PAYLOAD, exp.getMessage());
+    } catch (Exception exp) {
+
+      return SignatureVerificationResult.error(
+          SignatureVerificationError.UNEXPECTED, exp.getMessage());
+    }
 
-        validationResult.setError("sign role signature mismatch");
-        return validationResult;
+    return verifyDecoded(data, userAgent, ipAddresses, positions, currentEpochInSeconds, timed);
+  }
+
+  private SignatureVerificationResult verifyDecoded(
+      DecodedSignature data,
+      CharSequence userAgent,
+      Iterable<? extends CharSequence> ipAddresses,
+      int[] positions,
+      long currentEpochInSeconds,
+      boolean timed) {
+    int hmacAttempts = 0;
+
+    try {
+      int role = DecodedSignature.roleIndex(signRole);
+
+      ByteSlice signRoleToken = data.token(role);
+      if (signRoleToken == null || signRoleToken.isEmpty()) {
+
+        return SignatureVerificationResult.error(SignatureVerificationError.SIGN_ROLE_MISMATCH);
       }
 
-      int signType = SignatureVerifierUtils.characterToInt(data.get(signRole + "SignType"));
+      int signType = data.signType(role);
+      int signatureTime = data.getSignatureTime();
+      int requestTime = data.getRequestTime();
+      SignatureBase signatureBase = this.signatureBase.get();
+      signatureBase.reset(requestTime, signatureTime, userAgent);
+
+      int[] verdicts = candidateOrder.verdicts();
+      int candidate = -1;
 
-      for (String ipAddress : ipAddresses) {
-        String token;
+      for (CharSequence ipAddress : ipAddresses) {
+        candidate++;
+        ByteSlice token;
         if (ipAddress == null || ipAddress.length() == 0) {
           continue;
         }
-        if (IpV6Utils.validate(ipAddress)) {
+        long ipStart = timed ? System.nanoTime() : 0;
+        String ipV6Address = IpV6Utils.canonicalize(ipAddress);
+        long hmacStart = stageFinished(timed, VerificationStage.IP_CANONICALIZATION, ipStart);
+        if (ipV6Address != null) {
 
-          if (!data.containsKey(signRole + "TokenV6")) {
+          token = data.tokenV6(role);
+          if (token == null) {
             continue;
           }
-          token = (String) data.get(signRole + "TokenV6");
-          ipAddress = IpV6Utils.abbreviate(ipAddress);
+          ipAddress = ipV6Address;
         } else {
-          if (!data.containsKey(signRole + "Token")) {
-            continue;
-          }
-
-          token = (String) data.get(signRole + "Token");
+          token = signRoleToken;
         }
+        signatureBase.setIpAddress(ipAddress);
 
-        int signatureTime = SignatureVerifierUtils.characterToInt(data.get("signatureTime"));
-        int requestTime = SignatureVerifierUtils.characterToInt(data.get("requestTime"));
-
-        for (String result : results.keySet()) {
+        for (int verdict : verdicts) {
 
           switch (signType) {
             case 1:
-              String signatureBase =
-                  getBase(result, requestTime, signatureTime, ipAddress, userAgent);
-
+              hmacAttempts++;
               boolean isHashedDataEqualToToken =
-                  SignatureVerifierUtils.encode(key, signatureBase).equals(token);
+                  signatureBase.matches(VERDICT_CODES[verdict], token);
 
               if (isHashedDataEqualToToken) {
-                if (isExpired(expiry, signatureTime, requestTime)) {
-                  validationResult.setExpired(true);
-                  return validationResult;
+                stageFinished(timed, VerificationStage.HMAC, hmacStart);
+                int position = positions != null ? positions[candidate] : candidate;
+                candidateOrder.record(verdict, position);
+                if (isExpired(expiry, signatureTime, requestTime, currentEpochInSeconds)) {
+                  return SignatureVerificationResult.expired();
                 }
 
-                validationResult.setScore(Integer.valueOf(result));
-                validationResult.setVerdict(results.get(result));
-                validationResult.setIpAddress(ipAddress);
-                validationResult.setRequestTime(
-                    Integer.parseInt(String.valueOf(data.get("requestTime"))));
-                validationResult.setSignatureTime(
-                    Integer.parseInt(String.valueOf(data.get("signatureTime"))));
-
-                return validationResult;
+                return SignatureVerificationResult.verified(
+                    Verdict.ofIndex(verdict),
+                    ipAddress.toString(),
+                    firstEquivalent(ipAddresses, position, ipAddress, ipV6Address != null),
+                    requestTime,
+                    signatureTime,
+                    replayDetector != null ? replayDetector.checkAndRecord(token) : null);
               }
               break;
             case 2:
-              validationResult.setError("unsupported signature");
-              return validationResult;
+              return SignatureVerificationResult.error(
+                  SignatureVerificationError.UNSUPPORTED_SIGNATURE);
             default:
-              validationResult.setError("unrecognized signature");
-              return validationResult;
+              return SignatureVerificationResult.error(
+                  SignatureVerificationError.UNRECOGNIZED_SIGNATURE);
           }
         }
+        stageFinished(timed, VerificationStage.HMAC, hmacStart);
       }
 
-      validationResult.setError("no verdict");
-      return validationResult;
+      return SignatureVerificationResult.error(SignatureVerificationError.NO_VERDICT);
+
+    } catch (BaseSignatureVerificationException exp) {
 
+      return SignatureVerificationResult.error(exp);
     } catch (Exception exp) {
 
-      validationResult.setError(exp.getMessage());
-      return validationResult;
+      return SignatureVerificationResult.error(
+          SignatureVerificationError.UNEXPECTED, exp.getMessage());
+    } finally {
+      if (timed) {
+        listener.onHmacAttempts(hmacAttempts);
+      }
+    }
+  }
+
+  /**
+   * Verifies decrypted version 5 payload, which contains matching ip address and user agent
+   * directly. Payload carries no request and signature times, so expiry is not checked. Zone id
+   * from the header is checked when the service is bound to a zone.
+   */
+  private SignatureVerificationResult verify5(
+      Signature5Decoder.Payload payload,
+      CharSequence userAgent,
+      Iterable<? extends CharSequence> ipAddresses,
+      int[] positions,
+      boolean timed)
+      throws BaseSignatureVerificationException {
+    if (zoneId != null && payload.getZoneId() != zoneId) {
+      return SignatureVerificationResult.error(SignatureVerificationError.ZONE_MISMATCH);
+    }
+
+    int verdict = -1;
+    String result = payload.getResult();
+    for (int i = 0; i < VERDICT_CODES.length && result != null; i++) {
+      if (result.length() == 1 && result.charAt(0) == VERDICT_CODES[i]) {
+        verdict = i;
+      }
+    }
+    if (verdict < 0) {
+      return SignatureVerificationResult.error(SignatureVerificationError.UNRECOGNIZED_SIGNATURE);
+    }
+
+    String expectedUserAgent = payload.getUserAgent();
+    if (expectedUserAgent == null || !expectedUserAgent.equals(decodeUserAgent(userAgent))) {
+      return SignatureVerificationResult.error(SignatureVerificationError.NO_VERDICT);
     }
+
+    String ipV6 = payload.getIpV6() != null ? IpV6Utils.canonicalize(payload.getIpV6()) : null;
+    int candidate = -1;
+    for (CharSequence ipAddress : ipAddresses) {
+      candidate++;
+      if (ipAddress == null || ipAddress.length() == 0) {
+        continue;
+      }
+
+      long ipStart = timed ? System.nanoTime() : 0;
+      String ipV6Address = IpV6Utils.canonicalize(ipAddress);
+      stageFinished(timed, VerificationStage.IP_CANONICALIZATION, ipStart);
+      boolean matches =
+          ipV6Address != null
+              ? ipV6Address.equals(ipV6)
+              : payload.getIpV4() != null && payload.getIpV4().contentEquals(ipAddress);
+      if (!matches) {
+        continue;
+      }
+
+      int position = positions != null ? positions[candidate] : candidate;
+      candidateOrder.record(verdict, position);
+      return SignatureVerificationResult.verified(
+          Verdict.ofIndex(verdict),
+          ipV6Address != null ? ipV6Address : ipAddress.toString(),
+          firstEquivalent(
+              ipAddresses,
+              position,
+              ipV6Address != null ? ipV6Address : ipAddress,
+              ipV6Address != null),
+          replayDetector != null ? replayDetector.checkAndRecord(payload.getEncrypted()) : null);
+    }
+
+    return SignatureVerificationResult.error(SignatureVerificationError.NO_VERDICT);
+  }
+
+  private static String decodeUserAgent(CharSequence userAgent) {
+    if (userAgent instanceof ByteSequence) {
+      byte[] bytes = new byte[userAgent.length()];
+      ((ByteSequence) userAgent).copyTo(bytes, 0);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+    return userAgent != null ? userAgent.toString() : null;
+  }
+
+  /**
+   * Reports stage to the listener if verification is timed
+   *
+   * @return time the stage finished at, so it can be used as start of the next one
+   */
+  private long stageFinished(boolean timed, VerificationStage stage, long start) {
+    if (!timed) {
+      return 0;
+    }
+
+    long now = System.nanoTime();
+    listener.onStage(stage, now - start);
+    return now;
   }
 
   /**
@@ -172,15 +626,14 @@ public class SignatureVerifierService {
    * @return false if expiry is null. True if either signatureTime or requestTime expired, false
    *     otherwise.
    */
-  boolean isExpired(Integer expiry, int signatureTime, int requestTime) {
+  boolean isExpired(
+      Integer expiry, int signatureTime, int requestTime, long currentEpochInSeconds) {
 
     if (expiry == null) {
       // If expiry time not provided, neither signatureTime nor requestTime can be expired.
       return false;
     }
 
-    long currentEpochInSeconds = new Date().getTime() / 1000;
-
     // Cast both times to long, because operating on int epoch seconds exceeds integer max value
     // while adding higher dates (around 2035)
     boolean isSignatureTimeExpired = (long) signatureTime + (long) expiry < currentEpochInSeconds;
@@ -189,174 +642,286 @@ public class SignatureVerifierService {
     return isSignatureTimeExpired || isRequestTimeExpired;
   }
 
-  String getBase(
-      String verdict, int requestTime, int signatureTime, String ipAddress, String userAgent) {
-    StringJoiner joiner = new StringJoiner("\n");
+  /** @return positions in order addresses should be tried, null if in the given order */
+  private int[] positions(CharSequence[] ipAddresses) {
+    return ipAddresses != null ? candidateOrder.positions(ipAddresses.length) : null;
+  }
 
-    return joiner
-        .add(verdict)
-        .add(String.valueOf(requestTime))
-        .add(String.valueOf(signatureTime))
-        .add(ipAddress)
-        .add(userAgent)
-        .toString();
+  private static List<? extends CharSequence> ordered(CharSequence[] ipAddresses, int[] positions) {
+    if (ipAddresses == null) {
+      return Collections.emptyList();
+    }
+    if (positions == null) {
+      return Arrays.asList(ipAddresses);
+    }
+
+    return new ReorderedAddresses(ipAddresses, positions);
   }
 
-  private HashMap<String, Object> parse3(String signature)
-      throws BaseSignatureVerificationException {
-    signature = SignatureVerifierUtils.fromBase64(signature);
-    if (!"".equals(signature)) {
-      throw new SignatureVerificationException("invalid base64 payload");
+  /**
+   * Adaptive order may reach an address before its duplicates given earlier. Reports the first of
+   * equivalent addresses, the same as fixed order would.
+   *
+   * @param ipAddresses candidates as they were tried
+   * @param position original position of matching address
+   * @param matched matching address, canonicalized if it is ip6
+   * @param ipV6 true if matching address is ip6
+   * @return original position of the first address equivalent to the matching one
+   */
+  private static int firstEquivalent(
+      Iterable<? extends CharSequence> ipAddresses,
+      int position,
+      CharSequence matched,
+      boolean ipV6) {
+    if (!(ipAddresses instanceof ReorderedAddresses)) {
+      return position;
     }
 
-    UnpackResult unpackResult =
-        Unpacker.unpack(
-            "Cversion/NrequestTime/NsignatureTime/CmasterSignType/nmasterTokenLength", signature);
+    CharSequence[] original = ((ReorderedAddresses) ipAddresses).original;
+    for (int i = 0; i < position; i++) {
+      CharSequence candidate = original[i];
+      if (candidate == null || candidate.length() == 0) {
+        continue;
+      }
+
+      if (ipV6) {
+        try {
+          if (matched.equals(IpV6Utils.canonicalize(candidate))) {
+            return i;
+          }
+        } catch (SignatureVerificationException exp) {
+          // Malformed address is not equivalent to any other
+        }
+      } else if (contentEquals(candidate, matched)) {
+        return i;
+      }
+    }
 
-    Integer version = (Integer) unpackResult.getData().get("version");
+    return position;
+  }
 
-    if (version != 3) {
-      throw new SignatureRangeException("unsupported version");
+  private static boolean contentEquals(CharSequence first, CharSequence second) {
+    if (first.length() != second.length()) {
+      return false;
+    }
+    for (int i = 0; i < first.length(); i++) {
+      if (first.charAt(i) != second.charAt(i)) {
+        return false;
+      }
     }
+    return true;
+  }
 
-    Long timestamp = (Long) unpackResult.getData().get("timestamp");
-    if (timestamp > (new Date().getTime() / 1000)) {
-      throw new SignatureVerificationException("invalid timestamp (future time)");
+  /** View of ip addresses in the order they should be tried */
+  private static final class ReorderedAddresses extends AbstractList<CharSequence> {
+
+    private final CharSequence[] original;
+    private final int[] positions;
+
+    private ReorderedAddresses(CharSequence[] original, int[] positions) {
+      this.original = original;
+      this.positions = positions;
     }
 
-    Integer masterTokenLength = (Integer) unpackResult.getData().get("masterTokenLength");
-    String masterToken = SignatureVerifierUtils.substr(signature, 12, masterTokenLength + 12);
-    unpackResult.getData().put("masterToken", masterToken);
+    @Override
+    public CharSequence get(int index) {
+      return original[positions[index]];
+    }
 
-    int s1, s2;
+    @Override
+    public int size() {
+      return original.length;
+    }
+  }
 
-    if ((s1 = masterTokenLength) != (s2 = masterToken.length())) {
-      throw new SignatureVerificationException(
-          String.format("master token length mismatch (%s / %s)", s1, s2));
+  static long currentEpochInSeconds() {
+    return new Date().getTime() / 1000;
+  }
+
+  private static SignatureVerificationException prematureEnd(int location) {
+    return new SignatureVerificationException(
+        SignatureVerificationError.PREMATURE_END, " 0x%02x", location);
+  }
+
+  static DecodedSignature parse3(byte[] signature) throws BaseSignatureVerificationException {
+    return parse3(signature, DecodedSignature.ALL_ROLES);
+  }
+
+  static DecodedSignature parse3(byte[] signature, int role)
+      throws BaseSignatureVerificationException {
+    if (signature.length == 0) {
+      throw INVALID_BASE64_PAYLOAD;
     }
 
-    signature = SignatureVerifierUtils.substr(signature, masterTokenLength + 12);
+    SignatureReader reader = new SignatureReader(signature);
+    HashMap<String, Object> header = V3_HEADER.unpack(reader).getData();
 
-    HashMap<String, Object> data2 =
-        Unpacker.unpack("CcustomerSignType/ncustomerTokenLength", signature).getData();
+    if (!header.containsKey("version")
+        || SignatureVerifierUtils.characterToInt(header.get("version")) != 3) {
+      throw UNSUPPORTED_VERSION;
+    }
+
+    if (!header.containsKey("masterTokenLength")) {
+      throw PREMATURE_END;
+    }
 
-    Integer customerTokenLength = (Integer) data2.get("customerTokenLength");
-    String customerToken = SignatureVerifierUtils.substr(signature, 3, customerTokenLength + 3);
-    data2.put("customerToken", customerToken);
+    int[] signTypes = new int[2];
+    ByteSlice[] tokens = new ByteSlice[2];
+    signTypes[DecodedSignature.MASTER] =
+        SignatureVerifierUtils.characterToInt(header.get("masterSignType"));
 
-    if ((s1 = customerTokenLength) != (s2 = customerToken.length())) {
+    int s1, s2;
+
+    int masterTokenLength = SignatureVerifierUtils.characterToInt(header.get("masterTokenLength"));
+    int masterTokenRead = Math.min(masterTokenLength, reader.remaining());
+    if (isProjected(DecodedSignature.MASTER, role)) {
+      tokens[DecodedSignature.MASTER] = reader.readSlice(masterTokenRead);
+    } else {
+      reader.skip(masterTokenRead);
+    }
+
+    if ((s1 = masterTokenLength) != (s2 = masterTokenRead)) {
       throw new SignatureVerificationException(
-          String.format("customer token length mismatch (%s / %s)')", s1, s2));
+          SignatureVerificationError.MASTER_TOKEN_LENGTH_MISMATCH, " (%s / %s)", s1, s2);
     }
 
-    unpackResult.getData().putAll(data2);
+    HashMap<String, Object> header2 = V3_CUSTOMER_HEADER.unpack(reader).getData();
 
-    return unpackResult.getData();
-  }
+    if (!header2.containsKey("customerTokenLength")) {
+      throw PREMATURE_END;
+    }
+
+    signTypes[DecodedSignature.CUSTOMER] =
+        SignatureVerifierUtils.characterToInt(header2.get("customerSignType"));
 
-  private Field fieldTypeDef(Integer fieldId, int i) {
-    if (fieldIds.get(fieldId) != null) {
-      return fieldIds.get(fieldId);
+    int customerTokenLength =
+        SignatureVerifierUtils.characterToInt(header2.get("customerTokenLength"));
+    int customerTokenRead = Math.min(customerTokenLength, reader.remaining());
+    if (isProjected(DecodedSignature.CUSTOMER, role)) {
+      tokens[DecodedSignature.CUSTOMER] = reader.readSlice(customerTokenRead);
+    } else {
+      reader.skip(customerTokenRead);
     }
 
-    String resultType = fieldIds.get(fieldId & 0xC0).getType();
+    if ((s1 = customerTokenLength) != (s2 = customerTokenRead)) {
+      throw new SignatureVerificationException(
+          SignatureVerificationError.CUSTOMER_TOKEN_LENGTH_MISMATCH, " (%s / %s)')", s1, s2);
+    }
 
-    String iStr = SignatureVerifierUtils.padStart(String.valueOf(i), 2, '0');
-    String resultName = resultType + iStr;
+    return new DecodedSignature(
+        3,
+        SignatureVerifierUtils.characterToInt(header.get("requestTime")),
+        SignatureVerifierUtils.characterToInt(header.get("signatureTime")),
+        signTypes,
+        tokens,
+        new ByteSlice[2]);
+  }
 
-    return new Field(resultName, resultType);
+  static DecodedSignature parse4(byte[] signature) throws BaseSignatureVerificationException {
+    return parse4(signature, DecodedSignature.ALL_ROLES);
   }
 
-  private HashMap<String, Object> parse4(String signature)
+  /**
+   * Walks fields of version 4 signature. Fields are read in place, tokens of roles other than the
+   * requested one and fields of unknown ids are skipped by their length.
+   *
+   * @param signature signature already decoded from base64
+   * @param role index of the only role which tokens and sign type are needed, or {@link
+   *     DecodedSignature#ALL_ROLES}
+   * @return decoded signature fields
+   */
+  static DecodedSignature parse4(byte[] signature, int role)
       throws BaseSignatureVerificationException {
-    signature = SignatureVerifierUtils.fromBase64(signature);
-
-    if (signature.length() == 0) {
-      throw new SignatureVerificationException("invalid base64 payload");
+    if (signature.length == 0) {
+      throw INVALID_BASE64_PAYLOAD;
     }
 
-    HashMap<String, Object> data = Unpacker.unpack("Cversion/CfieldNum", signature).getData();
-
-    int version = SignatureVerifierUtils.characterToInt(data.get("version"));
+    // "Cversion/CfieldNum" header
+    SignatureReader reader = new SignatureReader(signature);
+    int version = reader.readUnsignedByte();
     if (version != 4) {
-      throw new SignatureRangeException("unsupported version");
+      throw UNSUPPORTED_VERSION;
     }
-    signature = SignatureVerifierUtils.substr(signature, 2);
 
-    int fieldNum = SignatureVerifierUtils.characterToInt(data.get("fieldNum"));
+    if (reader.remaining() < 1) {
+      throw PREMATURE_END_0X01;
+    }
 
-    for (int i = 0; i < fieldNum; ++i) {
-      HashMap<String, Object> header = Unpacker.unpack("CfieldId", signature).getData();
+    int fieldNum = reader.readUnsignedByte();
 
-      if (header.entrySet().size() == 0 || !header.containsKey("fieldId")) {
-        throw new SignatureVerificationException("premature end of signature 0x01");
+    int requestTime = 0;
+    int signatureTime = 0;
+    int[] signTypes = new int[2];
+    ByteSlice[] tokens = new ByteSlice[2];
+    ByteSlice[] tokensV6 = new ByteSlice[2];
+
+    for (int i = 0; i < fieldNum; ++i) {
+      if (reader.remaining() < 1) {
+        throw PREMATURE_END_0X01;
       }
 
-      Field fieldTypeDef =
-          fieldTypeDef(SignatureVerifierUtils.characterToInt(header.get("fieldId")), i);
-      HashMap<String, Object> v = new HashMap<>();
-      HashMap<String, Object> l;
+      int fieldId = reader.readUnsignedByte();
 
-      switch (fieldTypeDef.getType()) {
-        case "uchar":
-          v = Unpacker.unpack("Cx/Cv", signature).getData();
-          if (v.containsKey("v")) {
-            data.put(fieldTypeDef.getName(), v.get("v"));
-          } else {
-            throw new SignatureVerificationException("premature end of signature 0x02");
+      switch (fieldId & FIELD_TYPE_MASK) {
+        case FIELD_TYPE_UCHAR:
+          if (reader.remaining() < 1) {
+            throw PREMATURE_END_0X02;
+          }
+          int signType = reader.readUnsignedByte();
+          if ((fieldId | FIELD_ROLE_MASK) == (FIELD_TYPE_UCHAR | FIELD_ROLE_MASK)
+              && isProjected(fieldId & FIELD_ROLE_MASK, role)) {
+            signTypes[fieldId & FIELD_ROLE_MASK] = signType;
           }
-          signature = SignatureVerifierUtils.substr(signature, 2);
           break;
-        case "ushort":
-          v = Unpacker.unpack("Cx/nv", signature).getData();
-          if (v.containsKey("v")) {
-            data.put(fieldTypeDef.getName(), v.get("v"));
-          } else {
-            throw new Error("premature end of signature 0x03");
+        case FIELD_TYPE_USHORT:
+          if (reader.remaining() < 2) {
+            throw PREMATURE_END_0X03;
           }
-          signature = SignatureVerifierUtils.substr(signature, 3);
+          reader.skip(2);
           break;
-        case "ulong":
-          v = Unpacker.unpack("Cx/Nv", signature).getData();
-          if (v.containsKey("v")) {
-            data.put(fieldTypeDef.getName(), v.get("v"));
-          } else {
-            throw new Error("premature end of signature 0x04");
+        case FIELD_TYPE_ULONG:
+          if (reader.remaining() < 4) {
+            throw PREMATURE_END_0X04;
+          }
+          int time = reader.readInt();
+          if (fieldId == FIELD_REQUEST_TIME) {
+            requestTime = time;
+          } else if (fieldId == FIELD_SIGNATURE_TIME) {
+            signatureTime = time;
           }
-          signature = SignatureVerifierUtils.substr(signature, 5);
           break;
-        case "string":
-          l = Unpacker.unpack("Cx/nl", signature).getData();
-          if (!l.containsKey("l")) {
-            throw new Error("premature end of signature 0x05");
+        case FIELD_TYPE_STRING:
+          if (reader.remaining() < 2) {
+            throw PREMATURE_END_0X05;
           }
-          if ((SignatureVerifierUtils.characterToInt(l.get("l")) & 0x8000) > 0) {
-            int newl = SignatureVerifierUtils.characterToInt(l.get("l")) & 0xFF;
-            l.put("l", newl);
+          int length = reader.readUnsignedShort();
+          if ((length & 0x8000) > 0) {
+            length = length & 0xFF;
           }
 
-          String newV =
-              SignatureVerifierUtils.substr(
-                  signature, 3, SignatureVerifierUtils.characterToInt(l.get("l")));
-          v.put("v", newV);
-          data.put(fieldTypeDef.getName(), newV);
-
-          if (((String) v.get("v")).length() != SignatureVerifierUtils.characterToInt(l.get("l"))) {
-            throw new SignatureVerificationException("premature end of signature 0x06");
+          if (reader.remaining() < length) {
+            throw PREMATURE_END_0X06;
           }
 
-          signature =
-              SignatureVerifierUtils.substr(
-                  signature, 3 + SignatureVerifierUtils.characterToInt(l.get("l")));
-
+          if ((fieldId & ~(FIELD_ROLE_MASK | FIELD_V6_MASK)) != FIELD_TYPE_STRING
+              || !isProjected(fieldId & FIELD_ROLE_MASK, role)) {
+            reader.skip(length);
+          } else if ((fieldId & FIELD_V6_MASK) != 0) {
+            tokensV6[fieldId & FIELD_ROLE_MASK] = reader.readSlice(length);
+          } else {
+            tokens[fieldId & FIELD_ROLE_MASK] = reader.readSlice(length);
+          }
           break;
         default:
-          throw new SignatureVerificationException("unsupported variable type");
+          throw UNSUPPORTED_VARIABLE_TYPE;
       }
     }
 
-    data.remove(String.valueOf(fieldNum));
+    return new DecodedSignature(version, requestTime, signatureTime, signTypes, tokens, tokensV6);
+  }
 
-    return data;
+  /** @return true if fields of given role are decoded when role is requested */
+  private static boolean isProjected(int fieldRole, int role) {
+    return role == DecodedSignature.ALL_ROLES || fieldRole == role;
   }
 }
@@ -24,9 +24,8 @@
 
 package com.adscore.signature;
 
-import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.util.Base64;
-import java.util.regex.Pattern;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -38,25 +37,6 @@ import javax.crypto.spec.SecretKeySpec;
  */
 class SignatureVerifierUtils {
 
-  /** Method behaves same as js function: "str".substr(startIdx,length) */
-  static String substr(String str, int startIdx, int length) {
-    int endIdx = str.length();
-    if (startIdx > endIdx) {
-      return "";
-    }
-
-    if (startIdx + length < endIdx) {
-      endIdx = startIdx + length;
-    }
-
-    return str.substring(startIdx, endIdx);
-  }
-
-  /** Method behaves same as js function: "str".substr(startIdx,length) */
-  static String substr(String str, int length) {
-    return substr(str, length, str.length());
-  }
-
   /** Method behaves same as js function: "str".charAt(idx) */
   static char charAt(String str, int idx) {
     if (idx < 0 || idx >= str.length()) {
@@ -70,45 +50,47 @@ class SignatureVerifierUtils {
     return (int) obj;
   }
 
-  static String encode(String key, String data) throws Exception {
+  /**
+   * @param key raw key bytes
+   * @return HmacSHA256 instance initialized with given key
+   * @throws GeneralSecurityException if HmacSHA256 is not available or key is rejected
+   */
+  static Mac createMac(byte[] key) throws GeneralSecurityException {
     String algorithm = "HmacSHA256";
     Mac mac = Mac.getInstance(algorithm);
-    mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.ISO_8859_1), algorithm));
+    mac.init(new SecretKeySpec(key, algorithm));
 
-    byte[] digest = mac.doFinal(data.getBytes());
-    return new String(digest, StandardCharsets.ISO_8859_1);
+    return mac;
   }
 
   /**
    * @param key in base64 format
-   * @return decoded key
+   * @return decoded key bytes
    */
-  static String keyDecode(String key) {
-    return atob(key);
+  static byte[] keyDecode(String key) {
+    return Base64.getMimeDecoder().decode(key.getBytes());
   }
 
-  static String atob(String str) {
-    return new String(Base64.getMimeDecoder().decode(str.getBytes()), StandardCharsets.ISO_8859_1);
-  }
-
-  static String padStart(String inputString, int length, char c) {
-    if (inputString.length() >= length) {
-      return inputString;
-    }
-    StringBuilder sb = new StringBuilder();
-    while (sb.length() < length - inputString.length()) {
-      sb.append(c);
+  /**
+   * Decodes url-safe base64 (as used by AdScore signatures) without intermediate strings
+   *
+   * @param data base64 encoded string, characters outside base64 alphabet are ignored
+   * @return decoded bytes
+   */
+  static byte[] fromBase64(CharSequence data) {
+    int length = data.length();
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      char c = data.charAt(i);
+      if (c == '_') {
+        bytes[i] = '/';
+      } else if (c == '-') {
+        bytes[i] = '+';
+      } else {
+        bytes[i] = c < 0x80 ? (byte) c : (byte) '?';
+      }
     }
-    sb.append(inputString);
-
-    return sb.toString();
-  }
-
-  static boolean isCharMatches(String regex, int formatChar) {
-    return Pattern.compile(regex).matcher(String.valueOf(formatChar)).matches();
-  }
 
-  static String fromBase64(String data) {
-    return SignatureVerifierUtils.atob(data.replace('_', '/').replace('-', '+'));
+    return Base64.getMimeDecoder().decode(bytes);
   }
 }
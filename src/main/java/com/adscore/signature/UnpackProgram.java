@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.util.HashMap;
+
+/**
+ * Format string of {@link Unpacker} compiled into a list of instructions. Programs are immutable,
+ * so they can be prepared once and executed concurrently against any number of signatures.
+ */
+final class UnpackProgram {
+
+  /** Quantifier value meaning that instruction consumes all remaining data ("*") */
+  static final int ALL = -1;
+
+  private final Instruction[] instructions;
+  private final String error;
+
+  UnpackProgram(Instruction[] instructions, String error) {
+    this.instructions = instructions;
+    this.error = error;
+  }
+
+  /**
+   * Executes program against the reader, starting at its current offset. Reader is moved past the
+   * consumed bytes. Values which cannot be read completely (signature too short) are not present in
+   * the result.
+   *
+   * @param reader Reader of binary signature, already decoded from Base64
+   * @return UnpackResult object which contains unpacked data as a hash map, where key is a name of
+   *     the field. if result contains non-null error message then it means that format was not
+   *     valid. Data hash map is null then.
+   */
+  UnpackResult unpack(SignatureReader reader) {
+    HashMap<String, Object> resultMap = new HashMap<>();
+
+    for (Instruction instruction : instructions) {
+      int size = instruction.size();
+      int count =
+          instruction.quantifier == ALL ? reader.remaining() / size : instruction.quantifier;
+
+      for (int i = 0; i < count && reader.remaining() >= size; i++) {
+        int currentResult;
+        switch (instruction.opcode) {
+          case 'c':
+            currentResult = (byte) reader.readUnsignedByte();
+            break;
+          case 'C':
+            currentResult = reader.readUnsignedByte();
+            break;
+          case 'n':
+            currentResult = reader.readUnsignedShort();
+            break;
+          default:
+            currentResult = reader.readInt();
+            break;
+        }
+
+        resultMap.put(instruction.key(i, count), currentResult);
+      }
+    }
+
+    if (error != null) {
+      return new UnpackResult(error);
+    }
+
+    return new UnpackResult(resultMap);
+  }
+
+  /** Single format code together with its quantifier and label */
+  static final class Instruction {
+
+    private final char opcode;
+    private final int quantifier;
+    private final String label;
+
+    /** Result keys for fixed quantifiers, computed once to avoid concatenation on every unpack */
+    private final String[] keys;
+
+    Instruction(char opcode, int quantifier, String label) {
+      this.opcode = opcode;
+      this.quantifier = quantifier;
+      this.label = label;
+
+      if (quantifier == ALL) {
+        this.keys = null;
+      } else if (quantifier == 1) {
+        this.keys = new String[] {label};
+      } else {
+        this.keys = new String[quantifier];
+        for (int i = 0; i < quantifier; i++) {
+          this.keys[i] = label + (i + 1);
+        }
+      }
+    }
+
+    /** @return number of bytes consumed by single value */
+    private int size() {
+      switch (opcode) {
+        case 'n':
+          return 2;
+        case 'N':
+          return 4;
+        default:
+          return 1;
+      }
+    }
+
+    private String key(int i, int count) {
+      if (keys != null) {
+        return keys[i];
+      }
+
+      return label + (count > 1 ? (i + 1) : "");
+    }
+  }
+}
@@ -24,7 +24,10 @@
 
 package com.adscore.signature;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Copyright (c) 2020 AdScore Technologies DMCC [AE]
@@ -33,58 +36,64 @@ import java.util.HashMap;
  */
 class Unpacker {
 
-  /**
-   * Unpacks version field from the binary string
-   *
-   * @param signatureDecodedFromBase64 Signature already decoded from Base64
-   * @return Version as as single integer.
-   */
-  static Integer unpackVersion(String signatureDecodedFromBase64) {
-    return (Integer)
-        Unpacker.unpack("Cversion", signatureDecodedFromBase64).getData().get("version");
-  }
+  private static final ConcurrentMap<String, UnpackProgram> programs = new ConcurrentHashMap<>();
 
   /**
-   * Unpacks data from a binary string into the respective format.
+   * Unpacks data from a binary signature into the respective format. Format is compiled on first
+   * use and cached, see {@link #compile(String)}.
    *
    * @param format fields that have to be unpacked from data, forward slash separated.
-   * @param data Binary string, already decoded from Base64
+   * @param reader Reader of binary signature, already decoded from Base64
    * @return UnpackResult object which contains unpacked data as a hash map, where key is a name of
    *     the field. if result contains non-null error message then it means that unpacking failed.
    *     Data hash map is null then.
    */
-  static UnpackResult unpack(String format, String data) {
+  static UnpackResult unpack(String format, SignatureReader reader) {
+    return compile(format).unpack(reader);
+  }
+
+  /**
+   * Compiles format string into program which can be executed directly against binary signature.
+   * Programs are cached, so each distinct format is parsed only once.
+   *
+   * @param format fields that have to be unpacked from data, forward slash separated. Each field is
+   *     a format code (c, C, n or N) followed by optional quantifier (number or *) and a label.
+   * @return compiled program
+   */
+  static UnpackProgram compile(String format) {
+    UnpackProgram program = programs.get(format);
+    if (program == null) {
+      program = doCompile(format);
+      UnpackProgram previous = programs.putIfAbsent(format, program);
+      if (previous != null) {
+        program = previous;
+      }
+    }
+
+    return program;
+  }
+
+  private static UnpackProgram doCompile(String format) {
+    List<UnpackProgram.Instruction> instructions = new ArrayList<>();
     int formatPointer = 0;
-    int dataPointer = 0;
-    HashMap<String, Object> resultMap = new HashMap<>();
-    int instruction;
-    String quantifier;
-    int quantifierInt;
+    char instruction;
     String label;
-    String currentData;
-    int i;
-    int currentResult;
 
     while (formatPointer < format.length()) {
       instruction = SignatureVerifierUtils.charAt(format, formatPointer);
-      quantifier = "";
       formatPointer++;
 
-      while ((formatPointer < format.length())
-          && SignatureVerifierUtils.isCharMatches(
-              "[\\d\\*]", SignatureVerifierUtils.charAt(format, formatPointer))) {
-        quantifier += SignatureVerifierUtils.charAt(format, formatPointer);
+      int quantifierStart = formatPointer;
+      while ((formatPointer < format.length()) && isQuantifierChar(format.charAt(formatPointer))) {
         formatPointer++;
       }
-      if ("".equals(quantifier)) {
-        quantifier = "1";
-      }
+      String quantifier = format.substring(quantifierStart, formatPointer);
 
-      StringBuilder labelSb = new StringBuilder();
+      int labelStart = formatPointer;
       while ((formatPointer < format.length()) && (format.charAt(formatPointer) != '/')) {
-        labelSb.append(SignatureVerifierUtils.charAt(format, formatPointer++));
+        formatPointer++;
       }
-      label = labelSb.toString();
+      label = format.substring(labelStart, formatPointer);
 
       if (SignatureVerifierUtils.charAt(format, formatPointer) == '/') {
         formatPointer++;
@@ -93,70 +102,30 @@ class Unpacker {
       switch (instruction) {
         case 'c':
         case 'C':
-          if ("*".equals(quantifier)) {
-            quantifierInt = data.length() - dataPointer;
-          } else {
-            quantifierInt = Integer.parseInt(quantifier, 10);
-          }
-
-          currentData = SignatureVerifierUtils.substr(data, dataPointer, quantifierInt);
-          dataPointer += quantifierInt;
-
-          for (i = 0; i < currentData.length(); i++) {
-            currentResult = SignatureVerifierUtils.charAt(currentData, i);
-
-            if ((instruction == 'c') && (currentResult >= 128)) {
-              currentResult -= 256;
-            }
-
-            String key = label + (quantifierInt > 1 ? (i + 1) : "");
-            resultMap.put(key, currentResult);
-          }
-          break;
         case 'n':
-          if ("*".equals(quantifier)) {
-            quantifierInt = (data.length() - dataPointer) / 2;
-          } else {
-            quantifierInt = Integer.parseInt(quantifier, 10);
-          }
-
-          currentData = SignatureVerifierUtils.substr(data, dataPointer, quantifierInt * 2);
-          dataPointer += quantifierInt * 2;
-          for (i = 0; i < currentData.length(); i += 2) {
-            currentResult =
-                (((SignatureVerifierUtils.charAt(currentData, i) & 0xFF) << 8)
-                    + (SignatureVerifierUtils.charAt(currentData, i + 1) & 0xFF));
-
-            String key = label + (quantifierInt > 1 ? ((i / 2) + 1) : "");
-            resultMap.put(key, currentResult);
-          }
-          break;
         case 'N':
-          if ("*".equals(quantifier)) {
-            quantifierInt = (data.length() - dataPointer) / 4;
+          int quantifierInt;
+          if ("".equals(quantifier)) {
+            quantifierInt = 1;
+          } else if ("*".equals(quantifier)) {
+            quantifierInt = UnpackProgram.ALL;
           } else {
             quantifierInt = Integer.parseInt(quantifier, 10);
           }
 
-          currentData = SignatureVerifierUtils.substr(data, dataPointer, quantifierInt * 4);
-          dataPointer += quantifierInt * 4;
-          for (i = 0; i < currentData.length(); i += 4) {
-            currentResult =
-                (((SignatureVerifierUtils.charAt(currentData, i) & 0xFF) << 24)
-                    + ((SignatureVerifierUtils.charAt(currentData, i + 1) & 0xFF) << 16)
-                    + ((SignatureVerifierUtils.charAt(currentData, i + 2) & 0xFF) << 8)
-                    + ((SignatureVerifierUtils.charAt(currentData, i + 3) & 0xFF)));
-
-            String key = label + (quantifierInt > 1 ? ((i / 4) + 1) : "");
-            resultMap.put(key, currentResult);
-          }
+          instructions.add(new UnpackProgram.Instruction(instruction, quantifierInt, label));
           break;
         default:
-          return new UnpackResult(
-              String.format("Unknown format code:%s", String.valueOf(instruction)));
+          return new UnpackProgram(
+              instructions.toArray(new UnpackProgram.Instruction[0]),
+              String.format("Unknown format code:%s", String.valueOf((int) instruction)));
       }
     }
 
-    return new UnpackResult(resultMap);
+    return new UnpackProgram(instructions.toArray(new UnpackProgram.Instruction[0]), null);
+  }
+
+  private static boolean isQuantifierChar(char c) {
+    return (c >= '0' && c <= '9') || c == '*';
   }
 }
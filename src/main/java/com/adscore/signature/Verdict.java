@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+/**
+ * Verdict of verified signature, see {@link SignatureVerificationResult#getVerdictType()}.
+ * Constants are declared in the same order as verdict candidates are indexed by the verifier.
+ */
+public enum Verdict {
+  OK("ok", 0),
+  JUNK("junk", 3),
+  PROXY("proxy", 6),
+  BOT("bot", 9);
+
+  private static final Verdict[] VALUES = values();
+
+  private final String name;
+  private final int score;
+
+  Verdict(String name, int score) {
+    this.name = name;
+    this.score = score;
+  }
+
+  /** @return verdict name as returned by {@link SignatureVerificationResult#getVerdict()} */
+  public String getName() {
+    return name;
+  }
+
+  /** @return score of the verdict as returned by {@link SignatureVerificationResult#getScore()} */
+  public int getScore() {
+    return score;
+  }
+
+  /**
+   * @param index index of verdict candidate, see {@link SignatureVerifierService#VERDICT_CODES}
+   * @return verdict of the candidate
+   */
+  static Verdict ofIndex(int index) {
+    return VALUES[index];
+  }
+
+  /**
+   * @param name verdict name, e.g. "ok"
+   * @return verdict of given name or null if name is not known
+   */
+  static Verdict ofName(String name) {
+    for (Verdict verdict : VALUES) {
+      if (verdict.name.equals(name)) {
+        return verdict;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded in-memory cache of verification results. Useful when the same signature is verified
+ * several times within its expiry window (multiple ad slots on a page, retries, redirects).
+ *
+ * <p>Entries are spread by hash over up to 16 segments, each guarded by its own lock and evicting
+ * its least recently used entry once full. Capacities of segments add up to the maximum size, so
+ * cache may evict an entry before it holds maximum size entries in total; caches smaller than 32
+ * entries keep a single segment and evict exactly the least recently used entry. Cached entry lives
+ * for the configured ttl, but never longer than the signature itself is valid, so once signature
+ * expires it is verified again and reported as expired.
+ *
+ * <p>Single instance may be shared by many {@link ZoneVerifier}s, entries of different zones and
+ * sign roles never collide. Verifiers configured with the same zone key, sign role, expiry and zone
+ * id share entries, also when created separately or derived by e.g. {@link
+ * ZoneVerifier#withListener(VerificationListener)}.
+ */
+public final class VerificationCache {
+
+  private static final int MAXIMUM_SEGMENTS = 16;
+
+  /** Smallest capacity for which another segment is added */
+  private static final int MINIMUM_SEGMENT_SIZE = 16;
+
+  private static final String[] NO_ADDRESSES = new String[0];
+
+  private final Segment[] segments;
+  private final long ttlMillis;
+
+  /**
+   * @param maximumSize maximum number of cached results
+   * @param ttl number of seconds result is kept in cache
+   */
+  public VerificationCache(int maximumSize, int ttl) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("maximumSize must be positive");
+    }
+    if (ttl <= 0) {
+      throw new IllegalArgumentException("ttl must be positive");
+    }
+
+    // Power of two, so segment is selected by mask
+    int count =
+        Integer.highestOneBit(
+            Math.max(1, Math.min(MAXIMUM_SEGMENTS, maximumSize / MINIMUM_SEGMENT_SIZE)));
+    this.segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      segments[i] = new Segment(maximumSize / count + (i < maximumSize % count ? 1 : 0));
+    }
+    this.ttlMillis = ttl * 1000L;
+  }
+
+  /** @return number of currently cached results, including not yet evicted stale ones */
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  /** Removes all cached results */
+  public void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  SignatureVerificationResult get(
+      Scope scope, String signature, String userAgent, String[] ipAddresses) {
+    Key key = new Key(scope, signature, userAgent, addresses(ipAddresses));
+    Segment segment = segmentFor(key);
+
+    synchronized (segment) {
+      CachedResult entry = segment.get(key);
+      if (entry == null) {
+        return null;
+      }
+
+      if (entry.deadline <= System.currentTimeMillis()) {
+        segment.remove(key);
+        return null;
+      }
+
+      return entry.result;
+    }
+  }
+
+  void put(
+      Scope scope,
+      String signature,
+      String userAgent,
+      String[] ipAddresses,
+      SignatureVerificationResult result) {
+    long deadline = System.currentTimeMillis() + ttlMillis;
+
+    if (scope.expiry != null && result.hasTimes()) {
+      // Signature is valid as long as neither of its times is older than expiry
+      long oldestTime = Math.min(result.requestTime(), result.signatureTime());
+      deadline = Math.min(deadline, (oldestTime + scope.expiry + 1) * 1000);
+    }
+
+    Key key = new Key(scope, signature, userAgent, addresses(ipAddresses).clone());
+    Segment segment = segmentFor(key);
+
+    synchronized (segment) {
+      segment.put(key, new CachedResult(result, deadline));
+    }
+  }
+
+  /** Null addresses are verified the same way as no addresses */
+  private static String[] addresses(String[] ipAddresses) {
+    return ipAddresses != null ? ipAddresses : NO_ADDRESSES;
+  }
+
+  private Segment segmentFor(Key key) {
+    int hash = key.hash ^ (key.hash >>> 16);
+    return segments[hash & (segments.length - 1)];
+  }
+
+  @SuppressWarnings("serial")
+  private static final class Segment extends LinkedHashMap<Key, CachedResult> {
+
+    private final int maximumSize;
+
+    Segment(int maximumSize) {
+      super(16, 0.75f, true);
+      this.maximumSize = maximumSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+      return size() > maximumSize;
+    }
+  }
+
+  private static final class CachedResult {
+
+    private final SignatureVerificationResult result;
+
+    /** Epoch time in milliseconds after which entry is stale */
+    private final long deadline;
+
+    CachedResult(SignatureVerificationResult result, long deadline) {
+      this.result = result;
+      this.deadline = deadline;
+    }
+  }
+
+  /** Configuration of the verifier which determines its results, shared by its entries */
+  static final class Scope {
+
+    private final byte[] key;
+    private final String signRole;
+
+    /** Expiry in seconds, null if not checked */
+    private final Integer expiry;
+
+    private final Long zoneId;
+    private final int hash;
+
+    Scope(SignatureVerifierService service) {
+      this.key = service.getKey();
+      this.signRole = service.getSignRole();
+      this.expiry = service.getExpiry();
+      this.zoneId = service.getZoneId();
+
+      int hash = Arrays.hashCode(key);
+      hash = 31 * hash + Objects.hashCode(signRole);
+      hash = 31 * hash + Objects.hashCode(expiry);
+      hash = 31 * hash + Objects.hashCode(zoneId);
+      this.hash = hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Scope)) {
+        return false;
+      }
+
+      Scope other = (Scope) obj;
+      return hash == other.hash
+          && Arrays.equals(key, other.key)
+          && Objects.equals(signRole, other.signRole)
+          && Objects.equals(expiry, other.expiry)
+          && Objects.equals(zoneId, other.zoneId);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class Key {
+
+    private final Scope scope;
+    private final String signature;
+    private final String userAgent;
+    private final String[] ipAddresses;
+    private final int hash;
+
+    Key(Scope scope, String signature, String userAgent, String[] ipAddresses) {
+      this.scope = scope;
+      this.signature = signature;
+      this.userAgent = userAgent;
+      this.ipAddresses = ipAddresses;
+
+      int hash = scope.hashCode();
+      hash = 31 * hash + Objects.hashCode(signature);
+      hash = 31 * hash + Objects.hashCode(userAgent);
+      hash = 31 * hash + Arrays.hashCode(ipAddresses);
+      this.hash = hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) obj;
+      return hash == other.hash
+          && scope.equals(other.scope)
+          && Objects.equals(signature, other.signature)
+          && Objects.equals(userAgent, other.userAgent)
+          && Arrays.equals(ipAddresses, other.ipAddresses);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+/**
+ * Receives timings and outcomes of signature verification, see {@link
+ * ZoneVerifier#withListener(VerificationListener)}. Methods are called on the verifying thread, so
+ * implementations have to be thread-safe and cheap. {@link VerificationMetrics} is a ready to use
+ * implementation.
+ */
+public interface VerificationListener {
+
+  /** Listener ignoring all events. When set, verifier does not even measure time. */
+  VerificationListener NO_OP = new VerificationListener() {};
+
+  /**
+   * @param stage finished stage of verification
+   * @param nanos time spent in the stage
+   */
+  default void onStage(VerificationStage stage, long nanos) {}
+
+  /** @param attempts number of HMACs computed while verifying single signature */
+  default void onHmacAttempts(int attempts) {}
+
+  /**
+   * @param result result of verification
+   * @param nanos total time of verification
+   */
+  default void onResult(SignatureVerificationResult result, long nanos) {}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free {@link VerificationListener} collecting latency histograms per stage and counts of
+ * verification outcomes. Recording only increments striped counters, so it can be shared by all
+ * verifying threads. Values are read on demand, e.g. when scraped by monitoring system.
+ */
+public final class VerificationMetrics implements VerificationListener {
+
+  /** Latency buckets from 128ns up to ~137s, doubling each time */
+  private static final int LATENCY_MIN_SHIFT = 7;
+
+  private static final int LATENCY_BUCKETS = 31;
+
+  /** Buckets of HMAC attempts from 0 to 32, one per count, and one for more attempts */
+  private static final int HMAC_ATTEMPTS_BUCKETS = 34;
+
+  private final Histogram[] stages = new Histogram[VerificationStage.values().length];
+  private final Histogram total = Histogram.exponential(LATENCY_MIN_SHIFT, LATENCY_BUCKETS);
+  private final Histogram hmacAttempts = Histogram.linear(HMAC_ATTEMPTS_BUCKETS);
+
+  /** Verified signatures indexed by ordinal of their verdict, expired ones at the end */
+  private final LongAdder[] outcomes = new LongAdder[Verdict.values().length + 1];
+
+  private final LongAdder[] errors = new LongAdder[SignatureVerificationError.values().length];
+
+  public VerificationMetrics() {
+    for (int i = 0; i < stages.length; i++) {
+      stages[i] = Histogram.exponential(LATENCY_MIN_SHIFT, LATENCY_BUCKETS);
+    }
+    for (int i = 0; i < errors.length; i++) {
+      errors[i] = new LongAdder();
+    }
+    for (int i = 0; i < outcomes.length; i++) {
+      outcomes[i] = new LongAdder();
+    }
+  }
+
+  @Override
+  public void onStage(VerificationStage stage, long nanos) {
+    stages[stage.ordinal()].record(nanos);
+  }
+
+  @Override
+  public void onHmacAttempts(int attempts) {
+    hmacAttempts.record(attempts);
+  }
+
+  @Override
+  public void onResult(SignatureVerificationResult result, long nanos) {
+    total.record(nanos);
+
+    SignatureVerificationError errorCode = result.getErrorCode();
+    if (errorCode != null) {
+      errors[errorCode.ordinal()].increment();
+      return;
+    }
+
+    Verdict verdict = result.getVerdictType();
+    outcomes[verdict != null ? verdict.ordinal() : outcomes.length - 1].increment();
+  }
+
+  /** @return latency histogram (in nanoseconds) of given stage */
+  public Histogram getStage(VerificationStage stage) {
+    return stages[stage.ordinal()];
+  }
+
+  /** @return latency histogram (in nanoseconds) of whole verification */
+  public Histogram getTotal() {
+    return total;
+  }
+
+  /** @return histogram of number of HMACs computed per verification */
+  public Histogram getHmacAttempts() {
+    return hmacAttempts;
+  }
+
+  /**
+   * @return number of successful verifications per outcome. Outcome is a verdict ("ok", "junk",
+   *     "proxy", "bot") or "expired"
+   */
+  public Map<String, Long> getOutcomes() {
+    Map<String, Long> result = new TreeMap<>();
+    for (int i = 0; i < outcomes.length; i++) {
+      long count = outcomes[i].sum();
+      if (count > 0) {
+        result.put(i < outcomes.length - 1 ? Verdict.ofIndex(i).getName() : "expired", count);
+      }
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  /** @return number of failed verifications per error code, only codes which occurred */
+  public Map<SignatureVerificationError, Long> getErrors() {
+    Map<SignatureVerificationError, Long> result = new EnumMap<>(SignatureVerificationError.class);
+    for (SignatureVerificationError code : SignatureVerificationError.values()) {
+      long count = errors[code.ordinal()].sum();
+      if (count > 0) {
+        result.put(code, count);
+      }
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  /**
+   * Histogram with fixed buckets, either each twice as wide as the previous one, or each holding a
+   * single value. Last bucket holds all values exceeding the upper bound of the one before.
+   */
+  public static final class Histogram {
+
+    /** Shift of the upper bound of the first bucket, negative for buckets of single values */
+    private final int minShift;
+
+    private final LongAdder[] counts;
+    private final LongAdder sum = new LongAdder();
+
+    private Histogram(int minShift, int buckets) {
+      this.minShift = minShift;
+      this.counts = new LongAdder[buckets];
+      for (int i = 0; i < buckets; i++) {
+        counts[i] = new LongAdder();
+      }
+    }
+
+    /** @return histogram with buckets up to 2^minShift, 2^(minShift+1), ... */
+    static Histogram exponential(int minShift, int buckets) {
+      return new Histogram(minShift, buckets);
+    }
+
+    /** @return histogram with buckets of values 0, 1, ..., buckets - 2 */
+    static Histogram linear(int buckets) {
+      return new Histogram(-1, buckets);
+    }
+
+    void record(long value) {
+      int bucket;
+      if (minShift < 0) {
+        bucket = (int) Math.max(0, Math.min(value, counts.length - 1));
+      } else if (value <= 1) {
+        bucket = 0;
+      } else {
+        // index of the smallest power of two not lower than value
+        bucket = Math.max(0, 64 - Long.numberOfLeadingZeros(value - 1) - minShift);
+      }
+
+      counts[Math.min(bucket, counts.length - 1)].increment();
+      sum.add(value);
+    }
+
+    /** @return inclusive upper bounds of buckets, Long.MAX_VALUE for the last one */
+    public long[] getBucketUpperBounds() {
+      long[] bounds = new long[counts.length];
+      for (int i = 0; i < counts.length - 1; i++) {
+        bounds[i] = minShift < 0 ? i : 1L << (i + minShift);
+      }
+      bounds[counts.length - 1] = Long.MAX_VALUE;
+      return bounds;
+    }
+
+    /** @return number of recorded values per bucket */
+    public long[] getCounts() {
+      long[] result = new long[counts.length];
+      for (int i = 0; i < counts.length; i++) {
+        result[i] = counts[i].sum();
+      }
+      return result;
+    }
+
+    /** @return number of all recorded values */
+    public long getCount() {
+      long result = 0;
+      for (LongAdder count : counts) {
+        result += count.sum();
+      }
+      return result;
+    }
+
+    /** @return sum of all recorded values */
+    public long getSum() {
+      return sum.sum();
+    }
+  }
+}
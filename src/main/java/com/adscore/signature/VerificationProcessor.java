@@ -0,0 +1,456 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Reactive Streams processor verifying a stream of requests. Items are grouped into micro-batches,
+ * each of them verified by a single task of the executor, so crypto state kept by the worker thread
+ * is reused for the whole batch. At most {@code maxConcurrency} batches are verified at a time;
+ * while all of them are busy, incoming items accumulate into the next batch, so batches grow with
+ * the load, while a lone item is verified right away.
+ *
+ * <p>Results are emitted in the same order as requests were received. Processor keeps at most
+ * {@code batchSize * (maxConcurrency + 1)} items requested from upstream but not yet emitted
+ * downstream, so a slow subscriber slows down the upstream instead of piling up results. Only one
+ * subscriber is supported.
+ *
+ * <p>On Java 9+ it can be used as {@code java.util.concurrent.Flow.Processor} wrapped with {@code
+ * org.reactivestreams.FlowAdapters.toFlowProcessor(processor)}.
+ *
+ * <pre>{@code
+ * VerificationProcessor processor = new VerificationProcessor(verifier);
+ * requests.subscribe(processor);
+ * processor.subscribe(resultSubscriber);
+ * }</pre>
+ */
+public final class VerificationProcessor
+    implements Processor<VerificationRequest, SignatureVerificationResult> {
+
+  static final int DEFAULT_BATCH_SIZE = 64;
+
+  private static final Subscription EMPTY_SUBSCRIPTION =
+      new Subscription() {
+        @Override
+        public void request(long n) {}
+
+        @Override
+        public void cancel() {}
+      };
+
+  private final ZoneVerifier verifier;
+  private final Executor executor;
+  private final int batchSize;
+  private final int maxConcurrency;
+  private final long capacity;
+
+  /** Serializes signals sent downstream, see {@link #drain()} */
+  private final AtomicInteger wip = new AtomicInteger();
+
+  // State below is guarded by this
+
+  /** Batches with items received but not yet emitted, in order of items */
+  private final ArrayDeque<Batch> batches = new ArrayDeque<>();
+
+  /** Batches not yet submitted to the executor, the last one may still accept items */
+  private final ArrayDeque<Batch> waiting = new ArrayDeque<>();
+
+  private Subscription upstream;
+  private Subscriber<? super SignatureVerificationResult> downstream;
+  private boolean subscribed;
+  private int running;
+  private long buffered;
+  private long outstanding;
+  private long requested;
+  private boolean upstreamDone;
+  private Throwable error;
+  private boolean cancelled;
+  private boolean terminated;
+
+  /**
+   * Processor verifying batches of up to 64 items on common fork-join pool, as many at a time as
+   * there are available processors
+   *
+   * @param verifier verifier used to verify each of the requests
+   */
+  public VerificationProcessor(ZoneVerifier verifier) {
+    this(
+        verifier,
+        ForkJoinPool.commonPool(),
+        DEFAULT_BATCH_SIZE,
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param verifier verifier used to verify each of the requests
+   * @param executor executor running verification of batches
+   * @param batchSize maximum number of items verified by a single task
+   * @param maxConcurrency maximum number of batches verified at the same time
+   * @throws IllegalArgumentException if batchSize or maxConcurrency is not positive
+   */
+  public VerificationProcessor(
+      ZoneVerifier verifier, Executor executor, int batchSize, int maxConcurrency) {
+    if (batchSize < 1 || maxConcurrency < 1) {
+      throw new IllegalArgumentException(
+          "batchSize and maxConcurrency must be positive: " + batchSize + ", " + maxConcurrency);
+    }
+
+    this.verifier = Objects.requireNonNull(verifier, "verifier");
+    this.executor = Objects.requireNonNull(executor, "executor");
+    this.batchSize = batchSize;
+    this.maxConcurrency = maxConcurrency;
+    this.capacity = (long) batchSize * (maxConcurrency + 1);
+  }
+
+  @Override
+  public void onSubscribe(Subscription subscription) {
+    Objects.requireNonNull(subscription, "subscription");
+
+    boolean accepted;
+    long request = 0;
+    synchronized (this) {
+      accepted = upstream == null && !cancelled;
+      if (accepted) {
+        upstream = subscription;
+        request = replenish();
+      }
+    }
+
+    if (!accepted) {
+      subscription.cancel();
+    } else if (request > 0) {
+      subscription.request(request);
+    }
+  }
+
+  @Override
+  public void onNext(VerificationRequest item) {
+    Objects.requireNonNull(item, "item");
+
+    List<Batch> start;
+    synchronized (this) {
+      if (upstreamDone || cancelled) {
+        return;
+      }
+
+      outstanding--;
+      buffered++;
+      Batch last = waiting.peekLast();
+      if (last == null || last.size == batchSize) {
+        last = new Batch(batchSize);
+        waiting.add(last);
+        batches.add(last);
+      }
+      last.items[last.size++] = item;
+
+      start = startBatches();
+    }
+
+    submit(start);
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    Objects.requireNonNull(throwable, "throwable");
+
+    synchronized (this) {
+      if (upstreamDone) {
+        return;
+      }
+      upstreamDone = true;
+      error = throwable;
+    }
+
+    drain();
+  }
+
+  @Override
+  public void onComplete() {
+    synchronized (this) {
+      if (upstreamDone) {
+        return;
+      }
+      upstreamDone = true;
+    }
+
+    drain();
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super SignatureVerificationResult> subscriber) {
+    Objects.requireNonNull(subscriber, "subscriber");
+
+    boolean accepted;
+    synchronized (this) {
+      accepted = downstream == null;
+      if (accepted) {
+        downstream = subscriber;
+      }
+    }
+
+    if (!accepted) {
+      subscriber.onSubscribe(EMPTY_SUBSCRIPTION);
+      subscriber.onError(
+          new IllegalStateException("VerificationProcessor supports only one subscriber"));
+      return;
+    }
+
+    subscriber.onSubscribe(new Downstream());
+
+    Subscription subscription;
+    long request;
+    synchronized (this) {
+      subscribed = true;
+      subscription = upstream;
+      request = replenish();
+    }
+
+    if (request > 0) {
+      subscription.request(request);
+    }
+    drain();
+  }
+
+  /**
+   * Counts items which can be requested from upstream without exceeding the capacity. Requests are
+   * made in portions of at least a batch, not to signal upstream after each emitted result.
+   */
+  private long replenish() {
+    if (upstream == null || downstream == null || upstreamDone || cancelled) {
+      return 0;
+    }
+
+    long free = capacity - buffered - outstanding;
+    if (free < batchSize) {
+      return 0;
+    }
+
+    outstanding += free;
+    return free;
+  }
+
+  /** @return batches to submit, as many as there are free slots */
+  private List<Batch> startBatches() {
+    List<Batch> start = null;
+    while (running < maxConcurrency && !waiting.isEmpty()) {
+      if (start == null) {
+        start = new ArrayList<>(2);
+      }
+      start.add(waiting.poll());
+      running++;
+    }
+    return start;
+  }
+
+  private void submit(List<Batch> start) {
+    if (start == null) {
+      return;
+    }
+
+    for (Batch batch : start) {
+      try {
+        executor.execute(() -> verify(batch));
+      } catch (RejectedExecutionException exp) {
+        fail(exp);
+        return;
+      }
+    }
+  }
+
+  private void verify(Batch batch) {
+    try {
+      for (int i = 0; i < batch.size; i++) {
+        VerificationRequest item = batch.items[i];
+        batch.results[i] =
+            verifier.verify(item.getSignature(), item.getUserAgent(), item.ipAddresses());
+        batch.items[i] = null;
+      }
+    } catch (RuntimeException exp) {
+      fail(exp);
+    }
+
+    List<Batch> start;
+    synchronized (this) {
+      batch.done = true;
+      running--;
+      start = startBatches();
+    }
+
+    submit(start);
+    drain();
+  }
+
+  /** Drops all buffered items, cancels upstream and signals error downstream */
+  private void fail(Throwable throwable) {
+    Subscription subscription;
+    synchronized (this) {
+      if (terminated || (upstreamDone && error != null)) {
+        return;
+      }
+      upstreamDone = true;
+      error = throwable;
+      batches.clear();
+      waiting.clear();
+      buffered = 0;
+      subscription = upstream;
+    }
+
+    if (subscription != null) {
+      subscription.cancel();
+    }
+    drain();
+  }
+
+  /**
+   * Emits finished results while downstream has demand, then completion or error once all of them
+   * are emitted. Only one thread emits at a time, others just make it loop again.
+   */
+  private void drain() {
+    if (wip.getAndIncrement() != 0) {
+      return;
+    }
+
+    int missed = 1;
+    do {
+      emit();
+      missed = wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private void emit() {
+    while (true) {
+      Subscriber<? super SignatureVerificationResult> subscriber;
+      SignatureVerificationResult next = null;
+      Throwable failure = null;
+      Subscription subscription = null;
+      long request = 0;
+
+      synchronized (this) {
+        if (!subscribed || cancelled || terminated) {
+          return;
+        }
+        subscriber = downstream;
+
+        Batch head = batches.peek();
+        if (head != null) {
+          if (!head.done || requested == 0) {
+            return;
+          }
+
+          next = head.results[head.emitted];
+          head.results[head.emitted++] = null;
+          if (head.emitted == head.size) {
+            batches.poll();
+          }
+          if (requested != Long.MAX_VALUE) {
+            requested--;
+          }
+          buffered--;
+
+          subscription = upstream;
+          request = replenish();
+        } else if (upstreamDone) {
+          terminated = true;
+          failure = error;
+        } else {
+          return;
+        }
+      }
+
+      if (request > 0) {
+        subscription.request(request);
+      }
+
+      if (next != null) {
+        subscriber.onNext(next);
+      } else if (failure != null) {
+        subscriber.onError(failure);
+        return;
+      } else {
+        subscriber.onComplete();
+        return;
+      }
+    }
+  }
+
+  private final class Downstream implements Subscription {
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        fail(new IllegalArgumentException("Requested number of results must be positive: " + n));
+        return;
+      }
+
+      synchronized (VerificationProcessor.this) {
+        requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      Subscription subscription;
+      synchronized (VerificationProcessor.this) {
+        if (cancelled) {
+          return;
+        }
+        cancelled = true;
+        batches.clear();
+        waiting.clear();
+        subscription = upstream;
+      }
+
+      if (subscription != null) {
+        subscription.cancel();
+      }
+    }
+  }
+
+  /** Items verified by a single task, with their results */
+  private static final class Batch {
+    final VerificationRequest[] items;
+    final SignatureVerificationResult[] results;
+    int size;
+    int emitted;
+    boolean done;
+
+    Batch(int capacity) {
+      items = new VerificationRequest[capacity];
+      results = new SignatureVerificationResult[capacity];
+    }
+  }
+}
@@ -24,26 +24,14 @@
 
 package com.adscore.signature;
 
-/**
- * Representation of fields present within signature
- *
- * @author Łukasz Hyła <lhyla@iterative.pl> @Copyright
- */
-class Field {
-
-  private String name;
-  private String type;
-
-  Field(String name, String type) {
-    this.name = name;
-    this.type = type;
-  }
-
-  String getName() {
-    return name;
-  }
-
-  String getType() {
-    return type;
-  }
+/** Stages of signature verification reported to {@link VerificationListener} */
+public enum VerificationStage {
+  /** Decoding signature from base64 */
+  BASE64_DECODE,
+  /** Parsing fields of decoded signature */
+  FIELD_PARSE,
+  /** Classifying and canonicalizing single candidate ip address */
+  IP_CANONICALIZATION,
+  /** Computing HMACs of all verdict candidates for single ip address */
+  HMAC
 }
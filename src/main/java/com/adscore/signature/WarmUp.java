@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Primes verification paths of a zone: class initialization, JCE provider lookup, ipaddress library
+ * and JIT compilation. Synthetic signatures are issued with the zone key and verified by a detached
+ * copy of the service, with its own candidate order and a listener discarding everything, so
+ * warm-up leaves no trace in statistics of real traffic while timed paths are still exercised.
+ */
+final class WarmUp {
+
+  static final int DEFAULT_ITERATIONS = 500;
+
+  private static final String USER_AGENT =
+      "Mozilla/5.0 (warm-up) Chrome/80.0.3987.99 Safari/537.36";
+
+  /** Addresses of documentation ranges, last one of each list matches synthetic signature */
+  private static final String[] IP_V4_CANDIDATES = {"198.51.100.1", "fe80::1%1", "192.0.2.1"};
+
+  private static final String[] IP_V6_CANDIDATES = {"2001:DB8::2", "2001:db8:0:0:0:0:0:1"};
+
+  private static final String IP_V6 = "2001:db8::1";
+
+  private WarmUp() {}
+
+  /**
+   * @param service service to warm up
+   * @param iterations number of times each synthetic signature is verified
+   */
+  static void run(SignatureVerifierService service, int iterations) {
+    SignatureVerifierService detached = service.detached(new VerificationListener() {});
+    long now = SignatureVerifierService.currentEpochInSeconds();
+
+    String signature4;
+    String signature5;
+    try {
+      // "bot" is the last verdict tried in initial order
+      signature4 =
+          new SignatureGenerator(service.getSignRole(), service.getKey())
+              .generate(
+                  "bot",
+                  (int) now,
+                  (int) now,
+                  IP_V4_CANDIDATES[IP_V4_CANDIDATES.length - 1],
+                  IP_V6,
+                  USER_AGENT);
+      signature5 = signature5(service.getKey());
+    } catch (IllegalArgumentException | GeneralSecurityException exp) {
+      // Sign role or key is not usable, verification reports it on every call anyway
+      return;
+    }
+
+    for (int i = 0; i < iterations; i++) {
+      detached.verifySignature(signature4, USER_AGENT, IP_V4_CANDIDATES, now);
+      detached.verifySignature(signature4, USER_AGENT, IP_V6_CANDIDATES, now);
+      if (signature5 != null) {
+        detached.verifySignature(signature5, USER_AGENT, IP_V4_CANDIDATES, now);
+      }
+    }
+  }
+
+  /** @return version 5 signature, null if key cannot be used for AES */
+  private static String signature5(byte[] key) throws GeneralSecurityException {
+    if (key.length != 16 && key.length != 24 && key.length != 32) {
+      return null;
+    }
+
+    byte[] struct =
+        ("J{\"result\":9,\"ipv4\":{\"ip\":\""
+                + IP_V4_CANDIDATES[IP_V4_CANDIDATES.length - 1]
+                + "\"},\"b\":{\"ua\":\""
+                + USER_AGENT
+                + "\"}}")
+            .getBytes(StandardCharsets.UTF_8);
+    byte[] iv = new byte[16];
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+    byte[] encrypted = cipher.doFinal(struct);
+
+    int length = 2 + iv.length + encrypted.length;
+    ByteBuffer signature = ByteBuffer.allocate(11 + length);
+    signature.put((byte) Signature5Decoder.VERSION).putShort((short) length).putLong(0);
+    signature.put((byte) 0x00).put((byte) 0x02).put(iv).put(encrypted);
+
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(signature.array());
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Verifiers of many zones served by single application, with keys decoded and HMACs initialized
+ * once. Keys are loaded from properties file, one zone per line:
+ *
+ * <pre>
+ * # zoneId = currentKey[, previousKey]
+ * 1234=a2V5X25vbl9iYXNlNjRfZW5jb2RlZA==
+ * 5678=bmV3X2tleQ==,a2V5X25vbl9iYXNlNjRfZW5jb2RlZA==
+ * </pre>
+ *
+ * While key of a zone is rotated, signatures which do not verify with current key are verified with
+ * previous one. Verifiers of zones with numeric ids reject version 5 signatures issued for other
+ * zones, see {@link ZoneVerifier#withZoneId(long)}. File can be reloaded at any time, readers keep
+ * using previous snapshot of keys until new one is swapped in and are never blocked.
+ */
+public final class ZoneKeyRegistry {
+
+  private final String signRole;
+  private final Integer expiry;
+  private final Path file;
+
+  private volatile Map<String, ZoneKeys> zones = Collections.emptyMap();
+
+  /**
+   * Creates empty registry, keys have to be provided with {@link #load(Properties)}.
+   *
+   * @param signRole name of the role of the keys, could be a "master" or "customer"
+   * @param expiry number which is time in seconds, if null then expiry is not checked
+   */
+  public ZoneKeyRegistry(String signRole, Integer expiry) {
+    this.signRole = signRole;
+    this.expiry = expiry;
+    this.file = null;
+  }
+
+  /**
+   * Creates registry with keys loaded from given file, see {@link #reload()}.
+   *
+   * @param signRole name of the role of the keys, could be a "master" or "customer"
+   * @param expiry number which is time in seconds, if null then expiry is not checked
+   * @param file properties file with base64 encoded keys of zones
+   * @throws IOException when file can not be read
+   */
+  public ZoneKeyRegistry(String signRole, Integer expiry, Path file) throws IOException {
+    this.signRole = signRole;
+    this.expiry = expiry;
+    this.file = file;
+
+    reload();
+  }
+
+  /**
+   * Reads keys from the file again and replaces all zones with its content. When file can not be
+   * read or contains invalid key, previously loaded keys remain in use.
+   *
+   * @throws IOException when file can not be read
+   * @throws IllegalArgumentException when any of the keys is invalid
+   * @throws IllegalStateException when registry was not created with a file
+   */
+  public void reload() throws IOException {
+    if (file == null) {
+      throw new IllegalStateException("registry has no key file");
+    }
+
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      properties.load(reader);
+    }
+
+    load(properties);
+  }
+
+  /**
+   * Replaces all zones with given keys. Verifiers of keys which did not change are reused.
+   *
+   * @param properties zone ids mapped to base64 encoded current key, optionally followed by comma
+   *     and previous key
+   * @throws IllegalArgumentException when any of the keys is invalid
+   */
+  public synchronized void load(Properties properties) {
+    Map<String, ZoneKeys> current = zones;
+    Map<String, ZoneKeys> updated = new HashMap<>();
+
+    for (String zoneId : properties.stringPropertyNames()) {
+      String[] keys = properties.getProperty(zoneId).split(",", -1);
+      if (keys.length > 2 || keys[0].trim().isEmpty()) {
+        throw new IllegalArgumentException(
+            String.format("invalid keys of zone %s, expected: key[, previousKey]", zoneId));
+      }
+
+      String key = keys[0].trim();
+      String previousKey = keys.length > 1 && !keys[1].trim().isEmpty() ? keys[1].trim() : null;
+
+      try {
+        ZoneKeys old = current.get(zoneId);
+        updated.put(
+            zoneId,
+            new ZoneKeys(
+                key,
+                verifierFor(old, zoneId, key),
+                previousKey,
+                previousKey != null ? verifierFor(old, zoneId, previousKey) : null));
+      } catch (IllegalArgumentException exp) {
+        throw new IllegalArgumentException(
+            String.format("invalid key of zone %s: %s", zoneId, exp.getMessage()), exp);
+      }
+    }
+
+    zones = Collections.unmodifiableMap(updated);
+  }
+
+  /** @return ids of all zones currently known */
+  public Set<String> getZoneIds() {
+    return zones.keySet();
+  }
+
+  /**
+   * @param zoneId id of the zone
+   * @return verifier using current key of the zone or null if zone is not known
+   */
+  public ZoneVerifier getVerifier(String zoneId) {
+    ZoneKeys keys = zones.get(zoneId);
+    return keys != null ? keys.verifier : null;
+  }
+
+  /**
+   * Verifies signature with current key of the zone, and if it fails for a reason which depends on
+   * the key (no verdict matched, version 5 payload could not be decrypted or parsed), with previous
+   * key.
+   *
+   * @param zoneId id of the zone signature was issued for
+   * @param signature the string which we want to verify
+   * @param userAgent string with full description of user agent
+   * @param ipAddresses array of strings containing ip4 or ip6 addresses against which we check
+   *     signature
+   * @return VerificationResult, with "unknown zone" error if zone is not known
+   */
+  public SignatureVerificationResult verify(
+      String zoneId, String signature, String userAgent, String... ipAddresses) {
+    ZoneKeys keys = zones.get(zoneId);
+    if (keys == null) {
+      return SignatureVerificationResult.error(SignatureVerificationError.UNKNOWN_ZONE);
+    }
+
+    SignatureVerificationResult result = keys.verifier.verify(signature, userAgent, ipAddresses);
+    if (keys.previousVerifier != null && isKeyDependent(result.getErrorCode())) {
+      return keys.previousVerifier.verify(signature, userAgent, ipAddresses);
+    }
+
+    return result;
+  }
+
+  /** @return true if verification with other key could end with different result */
+  private static boolean isKeyDependent(SignatureVerificationError errorCode) {
+    return errorCode == SignatureVerificationError.NO_VERDICT
+        || errorCode == SignatureVerificationError.DECRYPTION_FAILED
+        || errorCode == SignatureVerificationError.UNSUPPORTED_PAYLOAD;
+  }
+
+  private ZoneVerifier verifierFor(ZoneKeys old, String zoneId, String key) {
+    if (old != null) {
+      if (key.equals(old.key)) {
+        return old.verifier;
+      }
+      if (key.equals(old.previousKey)) {
+        return old.previousVerifier;
+      }
+    }
+
+    ZoneVerifier verifier = new ZoneVerifier(signRole, key, true, expiry);
+    Long numericZoneId = numericZoneId(zoneId);
+    return numericZoneId != null ? verifier.withZoneId(numericZoneId) : verifier;
+  }
+
+  /** @return zone id as carried by version 5 signatures, null if it is not a number */
+  private static Long numericZoneId(String zoneId) {
+    try {
+      return Long.parseLong(zoneId.trim());
+    } catch (NumberFormatException exp) {
+      return null;
+    }
+  }
+
+  private static final class ZoneKeys {
+
+    private final String key;
+    private final ZoneVerifier verifier;
+    private final String previousKey;
+    private final ZoneVerifier previousVerifier;
+
+    private ZoneKeys(
+        String key, ZoneVerifier verifier, String previousKey, ZoneVerifier previousVerifier) {
+      this.key = key;
+      this.verifier = verifier;
+      this.previousKey = previousKey;
+      this.previousVerifier = previousVerifier;
+    }
+  }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Verifier bound to a single zone. It decodes the zone key and prepares HMAC only once, so it is
+ * meant to be created once per zone and reused for every signature of that zone. Instances are
+ * thread-safe and their configuration is immutable; the only state updated by verifications are
+ * statistics of candidate order of verifiers created with {@link #withAdaptiveOrder()}.
+ *
+ * <p>Version 5 signatures carry neither request nor signature time, so expiry is not checked for
+ * them, and their zone id is checked only by verifiers bound to a zone, see {@link
+ * #withZoneId(long)}.
+ *
+ * <pre>{@code
+ * ZoneVerifier verifier = new ZoneVerifier("customer", "a2V5X25vbl9iYXNlNjRfZW5jb2RlZA==");
+ * SignatureVerificationResult result = verifier.verify(signature, userAgent, "73.109.57.137");
+ * }</pre>
+ */
+public final class ZoneVerifier {
+
+  private final SignatureVerifierService service;
+  private final VerificationCache cache;
+
+  /** Configuration identifying entries of this verifier in cache, null if cache is not used */
+  private final VerificationCache.Scope cacheScope;
+
+  /**
+   * Key is expected to be base64 encoded, default request and signature expiration is set to 60s
+   *
+   * @param signRole string which specifies if we operate in customer or master role. For AdScore
+   *     customers this should be always set to 'customer'
+   * @param key string containing related zone key
+   * @throws IllegalArgumentException if key is not valid base64 or is empty
+   */
+  public ZoneVerifier(String signRole, String key) {
+    this(signRole, key, true, SignatureVerifier.DEFAULT_EXPIRY_TIME_SEC);
+  }
+
+  /**
+   * Key is expected to be base64 encoded
+   *
+   * @param signRole string which specifies if we operate in customer or master role. For AdScore
+   *     customers this should be always set to 'customer'
+   * @param key string containing related zone key
+   * @param expiry number which is time in seconds. IF signatureTime + expiry > CurrentDateInSeconds
+   *     THEN result is expired. If null than expiry is not checked.
+   * @throws IllegalArgumentException if key is not valid base64 or is empty
+   */
+  public ZoneVerifier(String signRole, String key, Integer expiry) {
+    this(signRole, key, true, expiry);
+  }
+
+  /**
+   * Default request and signature expiration is set to 60s
+   *
+   * @param signRole string which specifies if we operate in customer or master role. For AdScore
+   *     customers this should be always set to 'customer'
+   * @param key string containing related zone key
+   * @param isKeyBase64Encoded boolean defining if passed key is base64 encoded or not
+   * @throws IllegalArgumentException if key is not valid base64 or is empty
+   */
+  public ZoneVerifier(String signRole, String key, boolean isKeyBase64Encoded) {
+    this(signRole, key, isKeyBase64Encoded, SignatureVerifier.DEFAULT_EXPIRY_TIME_SEC);
+  }
+
+  /**
+   * @param signRole string which specifies if we operate in customer or master role. For AdScore
+   *     customers this should be always set to 'customer'
+   * @param key string containing related zone key
+   * @param isKeyBase64Encoded boolean defining if passed key is base64 encoded or not
+   * @param expiry number which is time in seconds. IF signatureTime + expiry > CurrentDateInSeconds
+   *     THEN result is expired. If null than expiry is not checked.
+   * @throws IllegalArgumentException if key is not valid base64 or is empty
+   */
+  public ZoneVerifier(String signRole, String key, boolean isKeyBase64Encoded, Integer expiry) {
+    this(new SignatureVerifierService(signRole, key, isKeyBase64Encoded, expiry), null);
+  }
+
+  private ZoneVerifier(SignatureVerifierService service, VerificationCache cache) {
+    this.service = service;
+    this.cache = cache;
+    this.cacheScope = cache != null ? new VerificationCache.Scope(service) : null;
+  }
+
+  /**
+   * @param cache cache of results to use, null to disable caching
+   * @return verifier of the same zone, which looks up results in given cache before verifying
+   *     signature
+   */
+  public ZoneVerifier withCache(VerificationCache cache) {
+    return new ZoneVerifier(service, cache);
+  }
+
+  /**
+   * @param listener listener notified about stage timings and outcome of each verification, e.g.
+   *     {@link VerificationMetrics}. Results served from cache are not reported.
+   * @return verifier of the same zone, reporting to given listener
+   */
+  public ZoneVerifier withListener(VerificationListener listener) {
+    return new ZoneVerifier(
+        service.withListener(listener != null ? listener : VerificationListener.NO_OP), cache);
+  }
+
+  /**
+   * @param replayDetector detector flagging signatures verified more than once, see {@link
+   *     SignatureVerificationResult#getReplayed()}, null to disable. Results served from cache are
+   *     not checked, so detector should not be combined with cache.
+   * @return verifier of the same zone, detecting replayed signatures
+   */
+  public ZoneVerifier withReplayDetector(ReplayDetector replayDetector) {
+    return new ZoneVerifier(service.withReplayDetector(replayDetector), cache);
+  }
+
+  /**
+   * Version 5 signatures carry id of the zone they were issued for in plain text, which is not
+   * covered by the zone key, so by default signature of any zone sharing the key is accepted. Ids
+   * of zones are not checked for version 3 and 4 signatures, which do not carry them.
+   *
+   * @param zoneId id of the zone the key belongs to
+   * @return verifier of the same zone, rejecting version 5 signatures of other zones with {@link
+   *     SignatureVerificationError#ZONE_MISMATCH}
+   */
+  public ZoneVerifier withZoneId(long zoneId) {
+    return new ZoneVerifier(service.withZoneId(zoneId), cache);
+  }
+
+  /**
+   * By default, verdicts are tried from "ok" to "bot" and ip addresses in the order they were
+   * given. Adaptive order tries verdicts and ip addresses which matched most often recently first,
+   * which usually saves HMAC computations but makes their order depend on previous traffic. Order
+   * of verdicts does not affect results, order of addresses can: when an address given earlier is
+   * malformed or matches as well (e.g. ip6 address next to matching ip4 one), it is reported only
+   * in fixed order. Duplicates of the matching address are reported at their first position in
+   * either case.
+   *
+   * @return verifier of the same zone, trying the most likely verdicts and ip addresses first
+   */
+  public ZoneVerifier withAdaptiveOrder() {
+    return new ZoneVerifier(service.withAdaptiveOrder(true), cache);
+  }
+
+  /**
+   * Verifies synthetic signatures issued with the zone key, so that the first real verification
+   * does not pay for class initialization, JCE provider lookup, ipaddress library initialization
+   * and interpreted execution. Meant to be called once at startup, e.g. in initialization phase of
+   * serverless functions. Listeners, replay detector, cache and candidate order statistics are not
+   * affected.
+   *
+   * @return this verifier
+   */
+  public ZoneVerifier warmUp() {
+    return warmUp(WarmUp.DEFAULT_ITERATIONS);
+  }
+
+  /**
+   * @param iterations number of times synthetic signatures are verified, more iterations let JIT
+   *     compile more of the verification path
+   * @return this verifier
+   * @see #warmUp()
+   */
+  public ZoneVerifier warmUp(int iterations) {
+    WarmUp.run(service, iterations);
+    return this;
+  }
+
+  /**
+   * @param signature the string which we want to verify
+   * @param userAgent string with full description of user agent like 'Mozilla/5.0 (Linux; Android
+   *     9; SM-J530F)...'
+   * @param ipAddresses array of strings containing ip4 or ip6 addresses against which we check
+   *     signature. Usually, is fulfilled from httpXForwardForIpAddresses or/and remoteIpAddresses
+   *     header. All possible ip addresses may be provided at once, in case of correct result,
+   *     verifier returns list of chosen ip addresses that matched with the signature.
+   * @return VerificationResult
+   */
+  public SignatureVerificationResult verify(
+      String signature, String userAgent, String... ipAddresses) {
+    if (cache == null) {
+      return service.verifySignature(signature, userAgent, ipAddresses);
+    }
+
+    SignatureVerificationResult result = cache.get(cacheScope, signature, userAgent, ipAddresses);
+    if (result == null) {
+      result = service.verifySignature(signature, userAgent, ipAddresses);
+      cache.put(cacheScope, signature, userAgent, ipAddresses, result);
+    }
+
+    return result;
+  }
+
+  /**
+   * Verifies signature given as any character sequences, e.g. header values of NIO servers, without
+   * converting them to strings first. Results are the same as of {@link #verify(String, String,
+   * String...)}, but are not cached.
+   *
+   * @param signature the string which we want to verify
+   * @param userAgent full description of user agent
+   * @param ipAddresses ip4 or ip6 addresses against which we check signature
+   * @return VerificationResult
+   */
+  public SignatureVerificationResult verify(
+      CharSequence signature, CharSequence userAgent, CharSequence... ipAddresses) {
+    return service.verifySignature(
+        signature, userAgent, ipAddresses, SignatureVerifierService.currentEpochInSeconds());
+  }
+
+  /**
+   * Verifies signature given as remaining bytes of buffers, without copying them. Signature and ip
+   * addresses are ascii, user agent is expected to be UTF-8 encoded, as received in HTTP header.
+   * Positions of the buffers are not changed. Results are the same as of {@link #verify(String,
+   * String, String...)}, but are not cached.
+   *
+   * @param signature bytes of the signature
+   * @param userAgent UTF-8 bytes of user agent, null if not known
+   * @param ipAddresses bytes of ip4 or ip6 addresses against which we check signature
+   * @return VerificationResult
+   */
+  public SignatureVerificationResult verify(
+      ByteBuffer signature, ByteBuffer userAgent, ByteBuffer... ipAddresses) {
+    CharSequence[] addresses = new CharSequence[ipAddresses != null ? ipAddresses.length : 0];
+    for (int i = 0; i < addresses.length; i++) {
+      addresses[i] = ipAddresses[i] != null ? new ByteSequence(ipAddresses[i]) : null;
+    }
+
+    return service.verifySignature(
+        signature != null ? new ByteSequence(signature) : null,
+        userAgent != null ? new ByteSequence(userAgent) : null,
+        addresses,
+        SignatureVerifierService.currentEpochInSeconds());
+  }
+
+  /**
+   * Verifies signature decoded earlier with {@link DecodedSignature#decode(String)}. The same
+   * decoded signature can be verified by verifiers of different zones or against different ip
+   * addresses without parsing it again. Results are not cached.
+   *
+   * @param signature decoded signature
+   * @param userAgent string with full description of user agent
+   * @param ipAddresses array of strings containing ip4 or ip6 addresses against which we check
+   *     signature
+   * @return VerificationResult
+   */
+  public SignatureVerificationResult verify(
+      DecodedSignature signature, String userAgent, String... ipAddresses) {
+    return service.verifySignature(signature, userAgent, ipAddresses);
+  }
+
+  /**
+   * Verifies signature against candidate addresses, which are consumed only until one of them
+   * matches, e.g. {@link ForwardedAddresses} parsed lazily from request headers. Results are not
+   * cached.
+   *
+   * @param signature the string which we want to verify
+   * @param userAgent string with full description of user agent
+   * @param ipAddresses candidate ip4 or ip6 addresses, in the order they should be tried
+   * @return VerificationResult
+   */
+  public SignatureVerificationResult verifyCandidates(
+      String signature, String userAgent, Iterable<? extends CharSequence> ipAddresses) {
+    return service.verifySignature(
+        signature, userAgent, ipAddresses, SignatureVerifierService.currentEpochInSeconds());
+  }
+
+  SignatureVerifierService service() {
+    return service;
+  }
+
+  /**
+   * Verifies batch of signatures in parallel, using common fork-join pool, or virtual threads on
+   * Java 21+.
+   *
+   * @param requests signatures to verify together with their user agents and ip addresses
+   * @return results in the same order as requests
+   */
+  public List<SignatureVerificationResult> verifyAll(Collection<VerificationRequest> requests) {
+    return verifyAll(requests, DefaultExecutors.forBatches());
+  }
+
+  /**
+   * Verifies batch of signatures in parallel. Requests are split into chunks, each of them verified
+   * by a single task submitted to the executor. On Java 21+ virtual threads can be used by passing
+   * {@code Executors.newVirtualThreadPerTaskExecutor()}.
+   *
+   * @param requests signatures to verify together with their user agents and ip addresses
+   * @param executor executor running verification tasks
+   * @return results in the same order as requests
+   */
+  public List<SignatureVerificationResult> verifyAll(
+      Collection<VerificationRequest> requests, Executor executor) {
+    return BatchExecutor.verifyAll(this, requests, executor);
+  }
+}
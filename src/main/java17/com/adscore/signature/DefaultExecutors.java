@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Executors used when caller does not provide one, Java 17+ version. On Java 21+ batches run on
+ * virtual threads, so they do not occupy the common fork-join pool shared with the rest of the
+ * application.
+ */
+final class DefaultExecutors {
+
+  /**
+   * Executor starting virtual thread per task on Java 21+, looked up reflectively so this class
+   * still compiles for Java 17, null on older runtimes
+   */
+  private static final Executor VIRTUAL_THREADS =
+      executor(Executors.class, "newVirtualThreadPerTaskExecutor");
+
+  private DefaultExecutors() {}
+
+  /**
+   * Each chunk runs on a new virtual thread, so per-thread crypto state (HMAC instances and buffers
+   * of the signature base, ciphers of version 5) is initialized once per chunk instead of once per
+   * pool thread. Chunks are large enough (a fraction of the batch per processor) for that to be
+   * negligible; executors running many small tasks should use platform threads instead.
+   *
+   * @return executor running chunks of batch and bulk verification
+   */
+  static Executor forBatches() {
+    return VIRTUAL_THREADS != null ? VIRTUAL_THREADS : ForkJoinPool.commonPool();
+  }
+
+  /**
+   * @param factory class declaring the factory method
+   * @param method name of public static no-argument method returning executor
+   * @return executor returned by the method, null if there is no such method
+   */
+  static Executor executor(Class<?> factory, String method) {
+    try {
+      return (Executor) factory.getMethod(method).invoke(null);
+    } catch (ReflectiveOperationException exp) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Sequential reader of binary signature. Reads big-endian values in place and moves the offset
+ * forward, so no part of signature is ever copied. Callers are responsible for checking {@link
+ * #remaining()} before reading.
+ *
+ * <p>Java 17+ version, multi-byte values are read with a single (intrinsified) {@link VarHandle}
+ * access instead of assembling them byte by byte.
+ */
+final class SignatureReader {
+
+  private static final VarHandle SHORT =
+      MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle INT =
+      MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle LONG =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+  private final byte[] data;
+  private int offset;
+
+  SignatureReader(byte[] data) {
+    this.data = data;
+  }
+
+  int remaining() {
+    return data.length - offset;
+  }
+
+  int getOffset() {
+    return offset;
+  }
+
+  void skip(int length) {
+    offset += length;
+  }
+
+  /** @return single byte as unsigned value ("C" format code) */
+  int readUnsignedByte() {
+    return data[offset++] & 0xFF;
+  }
+
+  /** @return 16 bit big endian unsigned value ("n" format code) */
+  int readUnsignedShort() {
+    int result = (short) SHORT.get(data, offset) & 0xFFFF;
+    offset += 2;
+    return result;
+  }
+
+  /** @return 32 bit big endian value ("N" format code) */
+  int readInt() {
+    int result = (int) INT.get(data, offset);
+    offset += 4;
+    return result;
+  }
+
+  /** @return 64 bit big endian value ("J" format code) */
+  long readLong() {
+    long result = (long) LONG.get(data, offset);
+    offset += 8;
+    return result;
+  }
+
+  /**
+   * @param length number of bytes to read, must not exceed {@link #remaining()}
+   * @return view of next length bytes
+   */
+  ByteSlice readSlice(int length) {
+    ByteSlice slice = new ByteSlice(data, offset, length);
+    offset += length;
+    return slice;
+  }
+}
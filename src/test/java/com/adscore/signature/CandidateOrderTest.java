@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.adscore.signature;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.Test;
+
+/** Fixed order is the default, adaptive order changes what is tried first but not duplicates */
+public class CandidateOrderTest {
+
+  private static final String KEY =
+      Base64.getEncoder()
+          .encodeToString("candidate_order_zone_key".getBytes(StandardCharsets.UTF_8));
+
+  private static final String USER_AGENT = "Mozilla/5.0 (X11; Linux x86_64)";
+  private static final String IP_V4 = "73.109.57.137";
+  private static final String IP_V6 = "2001:db8::5";
+
+  /** Enough matches that the order is recomputed, as it is sampled once per 256 on average */
+  private static final int TRAINING = 10_000;
+
+  private final int now = (int) SignatureVerifierService.currentEpochInSeconds();
+  private final String signature =
+      new SignatureGenerator("customer", KEY).generate("proxy", now, now, IP_V4, IP_V6, USER_AGENT);
+
+  @Test
+  public void fixedOrder() {
+    CandidateOrder order = CandidateOrder.FIXED;
+    for (int i = 0; i < TRAINING; i++) {
+      order.record(3, 2);
+    }
+
+    assertFalse(order.isAdaptive());
+    assertArrayEquals(new int[] {0, 1, 2, 3}, order.verdicts());
+    for (int count = 0; count <= CandidateOrder.TRACKED_POSITIONS + 2; count++) {
+      assertNull(order.positions(count));
+    }
+  }
+
+  @Test
+  public void adaptiveOrder() {
+    CandidateOrder order = CandidateOrder.adaptive();
+    for (int i = 0; i < TRAINING; i++) {
+      order.record(3, 2);
+    }
+
+    assertTrue(order.isAdaptive());
+    assertEquals(3, order.verdicts()[0]);
+    assertNull(order.positions(2));
+    assertArrayEquals(new int[] {2, 0, 1, 3}, order.positions(4));
+    assertArrayEquals(
+        new int[] {2, 0, 1, 3, 4, 5, 6, 7, 8, 9},
+        order.positions(CandidateOrder.TRACKED_POSITIONS + 2));
+  }
+
+  @Test
+  public void adaptiveVerdictsOnly() {
+    CandidateOrder order = CandidateOrder.adaptiveVerdicts();
+    for (int i = 0; i < TRAINING; i++) {
+      order.record(3, 2);
+    }
+
+    assertEquals(3, order.verdicts()[0]);
+    assertNull(order.positions(4));
+  }
+
+  @Test
+  public void fixedOrderByDefault() {
+    ZoneVerifier verifier = new ZoneVerifier("customer", KEY);
+    train(verifier);
+
+    SignatureVerificationResult result = verifier.verify(signature, USER_AGENT, IP_V6, IP_V4);
+    assertSame(Verdict.PROXY, result.getVerdictType());
+    assertEquals(0, result.getIpAddressIndex());
+    assertEquals(IP_V6, result.getIpAddress());
+  }
+
+  @Test
+  public void adaptiveOrderTriesLearnedPositionFirst() {
+    ZoneVerifier verifier = new ZoneVerifier("customer", KEY).withAdaptiveOrder();
+    train(verifier);
+
+    SignatureVerificationResult result = verifier.verify(signature, USER_AGENT, IP_V6, IP_V4);
+    assertSame(Verdict.PROXY, result.getVerdictType());
+    assertEquals(1, result.getIpAddressIndex());
+    assertEquals(IP_V4, result.getIpAddress());
+  }
+
+  @Test
+  public void adaptiveOrderReportsFirstDuplicate() {
+    ZoneVerifier verifier = new ZoneVerifier("customer", KEY).withAdaptiveOrder();
+    train(verifier);
+
+    SignatureVerificationResult result = verifier.verify(signature, USER_AGENT, IP_V4, IP_V4);
+    assertSame(Verdict.PROXY, result.getVerdictType());
+    assertEquals(0, result.getIpAddressIndex());
+
+    result = verifier.verify(signature, USER_AGENT, "2001:DB8:0:0::5", IP_V6, "10.0.0.2");
+    assertSame(Verdict.PROXY, result.getVerdictType());
+    assertEquals(0, result.getIpAddressIndex());
+  }
+
+  /** Makes the second address match in all verifications */
+  private void train(ZoneVerifier verifier) {
+    for (int i = 0; i < TRAINING; i++) {
+      SignatureVerificationResult result =
+          verifier.verify(signature, USER_AGENT, "10.0.0.1", IP_V4, "10.0.0.2");
+      assertEquals(1, result.getIpAddressIndex());
+    }
+  }
+}
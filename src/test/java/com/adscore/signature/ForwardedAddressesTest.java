@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.adscore.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/** Candidate addresses parsed from X-Forwarded-For headers, in each order and lazily */
+public class ForwardedAddressesTest {
+
+  private static final String[] HEADERS = {
+    " 10.0.0.1:8080 , [2001:db8::5]:443", "", null, "10.0.0.2,,"
+  };
+
+  @Test
+  public void clientFirst() {
+    assertAddresses(
+        ForwardedAddresses.of("192.168.0.1", ForwardedAddresses.Order.CLIENT_FIRST, HEADERS),
+        "10.0.0.1",
+        "2001:db8::5",
+        "10.0.0.2",
+        "192.168.0.1");
+  }
+
+  @Test
+  public void remoteFirst() {
+    assertAddresses(
+        ForwardedAddresses.of("192.168.0.1", ForwardedAddresses.Order.REMOTE_FIRST, HEADERS),
+        "192.168.0.1",
+        "10.0.0.1",
+        "2001:db8::5",
+        "10.0.0.2");
+  }
+
+  @Test
+  public void nearestFirst() {
+    assertAddresses(
+        ForwardedAddresses.of("192.168.0.1", ForwardedAddresses.Order.NEAREST_FIRST, HEADERS),
+        "192.168.0.1",
+        "10.0.0.2",
+        "2001:db8::5",
+        "10.0.0.1");
+  }
+
+  @Test
+  public void withoutAddresses() {
+    assertAddresses(ForwardedAddresses.of(null, ForwardedAddresses.Order.REMOTE_FIRST));
+    assertAddresses(
+        ForwardedAddresses.of("", ForwardedAddresses.Order.NEAREST_FIRST, " , ", "[]", null));
+    assertAddresses(
+        ForwardedAddresses.of(null, ForwardedAddresses.Order.CLIENT_FIRST, (String[]) null));
+  }
+
+  @Test
+  public void addressesAreViews() {
+    CharSequence address =
+        ForwardedAddresses.of(null, ForwardedAddresses.Order.CLIENT_FIRST, " 73.109.57.137:80 ")
+            .iterator()
+            .next();
+
+    assertEquals(13, address.length());
+    assertEquals('7', address.charAt(0));
+    assertEquals("109", address.subSequence(3, 6).toString());
+    assertEquals("73.109.57.137", address.toString());
+  }
+
+  @Test
+  public void verificationStopsAtMatchingAddress() {
+    String key =
+        Base64.getEncoder().encodeToString("forwarded_zone_key".getBytes(StandardCharsets.UTF_8));
+    int now = (int) SignatureVerifierService.currentEpochInSeconds();
+    String signature =
+        new SignatureGenerator("customer", key)
+            .generate("junk", now, now, "73.109.57.137", "2001:db8::5", "UA");
+    ForwardedAddresses addresses =
+        ForwardedAddresses.of(
+            "192.168.0.1",
+            ForwardedAddresses.Order.NEAREST_FIRST,
+            "10.0.0.1, 73.109.57.137",
+            "[2001:DB8::5]:443, 10.0.0.2");
+    AtomicInteger consumed = new AtomicInteger();
+    Iterable<CharSequence> counted =
+        () -> {
+          Iterator<CharSequence> iterator = addresses.iterator();
+          return new Iterator<CharSequence>() {
+            @Override
+            public boolean hasNext() {
+              return iterator.hasNext();
+            }
+
+            @Override
+            public CharSequence next() {
+              consumed.incrementAndGet();
+              return iterator.next();
+            }
+          };
+        };
+
+    SignatureVerificationResult result =
+        new ZoneVerifier("customer", key).verifyCandidates(signature, "UA", counted);
+
+    assertSame(Verdict.JUNK, result.getVerdictType());
+    assertEquals("2001:db8::5", result.getIpAddress());
+    assertEquals(2, result.getIpAddressIndex());
+    assertEquals(3, consumed.get());
+  }
+
+  private static void assertAddresses(ForwardedAddresses addresses, String... expected) {
+    for (int pass = 0; pass < 2; pass++) {
+      List<String> actual = new ArrayList<>();
+      for (CharSequence address : addresses) {
+        actual.add(address.toString());
+      }
+      assertEquals(Arrays.asList(expected), actual);
+    }
+  }
+}
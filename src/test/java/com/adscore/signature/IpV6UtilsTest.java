@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import inet.ipaddr.AddressStringException;
+import inet.ipaddr.IPAddressString;
+import java.util.Random;
+import org.junit.Test;
+
+/** Checks that canonicalization of ip6 addresses gives the same results as IPAddress library */
+public class IpV6UtilsTest {
+
+  private static final String INVALID = "invalid";
+
+  @Test
+  public void compressedAddresses() {
+    assertCanonical(
+        "::",
+        "::1",
+        "1::",
+        "2001:db8::1",
+        "2001:DB8::1",
+        "2001:0db8:0000:0000:0000:0000:0000:0001",
+        "2001:db8:0:0:1:0:0:1",
+        "2001:db8::1:0:0:1",
+        "2001:db8:0:0:1::1",
+        "fe80::",
+        "0:0:0:0:0:0:0:0",
+        "1:2:3:4:5:6:7:8",
+        "1:0:0:4:0:0:0:8",
+        "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff");
+  }
+
+  @Test
+  public void embeddedIpV4Addresses() {
+    assertCanonical(
+        "::ffff:73.109.57.137",
+        "::FFFF:1.2.3.4",
+        "::1.2.3.4",
+        "64:ff9b::192.0.2.33",
+        "1:2:3:4:5:6:1.2.3.4",
+        "0:0:0:0:0:ffff:255.255.255.255",
+        "::ffff:1.2.3",
+        "::ffff:256.2.3.4",
+        "::ffff:01.2.3.4");
+  }
+
+  @Test
+  public void zoneIds() {
+    assertCanonical("fe80::1%eth0", "fe80::1%1", "fe80::%25eth0", "::1.2.3.4%lo");
+  }
+
+  @Test
+  public void malformedAddresses() {
+    assertCanonical(
+        "",
+        ":",
+        ":::",
+        "1:::2",
+        "1::2::3",
+        "1:2:3:4:5:6:7:8:9",
+        "1:2:3:4:5:6:7",
+        "12345::",
+        "g::1",
+        "2001:db8::1/64",
+        "2001:db8::*",
+        " ::1",
+        "::1 ",
+        "[::1]",
+        "::ż",
+        "1.2.3.4",
+        "1.2.3.4.5",
+        "localhost");
+  }
+
+  @Test
+  public void randomAddresses() {
+    Random random = new Random(42);
+    for (int i = 0; i < 10_000; i++) {
+      int[] segments = new int[8];
+      for (int j = 0; j < segments.length; j++) {
+        // Plenty of zero segments, so "::" is placed in various positions
+        segments[j] = random.nextInt(3) == 0 ? 0 : random.nextInt(0x10000);
+      }
+
+      StringBuilder full = new StringBuilder();
+      for (int j = 0; j < segments.length; j++) {
+        if (j > 0) {
+          full.append(':');
+        }
+        String segment = Integer.toHexString(segments[j]);
+        full.append(random.nextBoolean() ? segment : segment.toUpperCase());
+      }
+      assertCanonical(full.toString());
+      assertCanonical(new IPAddressString(full.toString()).getAddress().toCompressedString());
+    }
+  }
+
+  @Test
+  public void ipV4IsNotCanonicalized() throws Exception {
+    assertNull(IpV6Utils.canonicalize("73.109.57.137"));
+  }
+
+  private static void assertCanonical(String... ipAddresses) {
+    for (String ipAddress : ipAddresses) {
+      assertEquals(ipAddress, expected(ipAddress), actual(ipAddress));
+      assertEquals(ipAddress, expected(ipAddress), actual(new StringBuilder(ipAddress)));
+    }
+  }
+
+  /** @return canonical form given by IPAddress library, null if not ip6 */
+  private static String expected(String ipAddress) {
+    IPAddressString ip6 = new IPAddressString(ipAddress);
+    if (!ip6.isIPv6()) {
+      return null;
+    }
+
+    try {
+      return ip6.toAddress().toIPv6().toString();
+    } catch (AddressStringException exp) {
+      return INVALID;
+    }
+  }
+
+  private static String actual(CharSequence ipAddress) {
+    try {
+      return IpV6Utils.canonicalize(ipAddress);
+    } catch (SignatureVerificationException exp) {
+      return INVALID;
+    }
+  }
+}
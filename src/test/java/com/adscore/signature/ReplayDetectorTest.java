@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.adscore.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/** Replays are flagged within the window and the next one, rotation keeps concurrent records */
+public class ReplayDetectorTest {
+
+  private static final long WINDOW = 60_000;
+
+  /** Start of an arbitrary window */
+  private static final long START = 1_600_000_000L / 60 * WINDOW;
+
+  private final Random random = new Random(42);
+
+  @Test
+  public void replayWithinWindow() {
+    ReplayDetector detector = new ReplayDetector(60, 1_000);
+    ByteSlice token = token();
+
+    assertFalse(detector.checkAndRecord(token, START));
+    assertTrue(detector.checkAndRecord(token, START + 1));
+    assertFalse(detector.checkAndRecord(token(), START + 2));
+  }
+
+  @Test
+  public void rememberedInNextWindowOnly() {
+    ReplayDetector detector = new ReplayDetector(60, 1_000);
+    ByteSlice first = token();
+    ByteSlice second = token();
+
+    assertFalse(detector.checkAndRecord(first, START + WINDOW - 1));
+    assertTrue(detector.checkAndRecord(first, START + WINDOW));
+    assertFalse(detector.checkAndRecord(second, START + WINDOW));
+    assertTrue(detector.checkAndRecord(second, START + 2 * WINDOW));
+    // first was recorded again at START + WINDOW
+    assertTrue(detector.checkAndRecord(first, START + 2 * WINDOW));
+    assertFalse(detector.checkAndRecord(first, START + 4 * WINDOW));
+  }
+
+  @Test
+  public void skippedWindowsForgetEverything() {
+    ReplayDetector detector = new ReplayDetector(60, 1_000);
+    ByteSlice[] tokens = {token(), token(), token()};
+    for (int i = 0; i < tokens.length; i++) {
+      detector.checkAndRecord(tokens[i], START + i * WINDOW);
+    }
+
+    for (ByteSlice token : tokens) {
+      assertFalse(detector.checkAndRecord(token, START + 5 * WINDOW));
+    }
+  }
+
+  @Test
+  public void sameSignatureWithOtherAddresses() {
+    String key =
+        Base64.getEncoder().encodeToString("replay_zone_key".getBytes(StandardCharsets.UTF_8));
+    int now = (int) SignatureVerifierService.currentEpochInSeconds();
+    String signature =
+        new SignatureGenerator("customer", key)
+            .generate("ok", now, now, "73.109.57.137", null, "UA");
+    ZoneVerifier verifier =
+        new ZoneVerifier("customer", key).withReplayDetector(new ReplayDetector(60, 1_000));
+
+    assertEquals(Boolean.FALSE, verifier.verify(signature, "UA", "73.109.57.137").getReplayed());
+    assertEquals(
+        Boolean.TRUE, verifier.verify(signature, "UA", "10.0.0.1", "73.109.57.137").getReplayed());
+  }
+
+  @Test
+  public void falsePositiveRate() {
+    ReplayDetector detector = new ReplayDetector(10, 1_000, 0.01);
+    int flagged = 0;
+    for (int i = 0; i < 10_000; i++) {
+      if (detector.checkAndRecord(token(), START)) {
+        flagged++;
+      }
+    }
+
+    assertTrue(String.valueOf(flagged), flagged < 200);
+  }
+
+  @Test
+  public void rotationKeepsConcurrentRecords() throws Exception {
+    int threads = 4;
+    ReplayDetector detector = new ReplayDetector(60, 100_000);
+    CyclicBarrier barrier = new CyclicBarrier(threads);
+    AtomicInteger lost = new AtomicInteger();
+    List<Thread> workers = new ArrayList<>();
+    List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+
+    for (int t = 0; t < threads; t++) {
+      Random seed = new Random(t);
+      workers.add(
+          new Thread(
+              () -> {
+                try {
+                  for (int round = 1; round <= 200; round++) {
+                    // Every round skips windows, so the first thread entering clears all filters
+                    long now = START + round * 3 * WINDOW;
+                    ByteSlice token = token(seed);
+                    barrier.await(10, TimeUnit.SECONDS);
+                    detector.checkAndRecord(token, now);
+                    barrier.await(10, TimeUnit.SECONDS);
+                    if (!detector.checkAndRecord(token, now)) {
+                      lost.incrementAndGet();
+                    }
+                  }
+                } catch (Exception e) {
+                  failures.add(e);
+                }
+              }));
+    }
+
+    for (Thread worker : workers) {
+      worker.start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    assertTrue(failures.toString(), failures.isEmpty());
+    assertEquals(0, lost.get());
+  }
+
+  private ByteSlice token() {
+    return token(random);
+  }
+
+  private static ByteSlice token(Random random) {
+    byte[] token = new byte[32];
+    random.nextBytes(token);
+    return new ByteSlice(token, 0, token.length);
+  }
+}
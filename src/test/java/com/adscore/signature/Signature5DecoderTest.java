@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Test;
+
+/** Version 5 signatures encrypted here with JCE are decrypted and verified by the verifier */
+public class Signature5DecoderTest {
+
+  private static final int CBC = 0x0200;
+  private static final int GCM = 0x0201;
+  private static final long ZONE_ID = 1234;
+
+  private static final String USER_AGENT = "Mozilla/5.0 (Zażółć)";
+  private static final String JSON =
+      "J{\"zone_id\":1234,\"result\":6,\"ipv4\":{\"ip\":\"73.109.57.137\",\"v\":4},"
+          + "\"ipv6\":{\"ip\":\"2001:db8::1\"},"
+          + "\"b\":{\"ua\":\"Mozilla\\/5.0 (Za\\u017cółć)\",\"list\":[1,{\"ua\":\"x\"},[2]]},"
+          + "\"t\":true}";
+  private static final String QUERY =
+      "Hzone_id=1234&result=6&ipv4%5Bip%5D=73.109.57.137&ipv6[ip]=2001%3Adb8%3A%3A1"
+          + "&b%5Bua%5D=Mozilla%2F5.0+%28Za%C5%BC%C3%B3%C5%82%C4%87%29";
+
+  private final byte[] key = bytes(32, 1);
+  private final ZoneVerifier verifier =
+      new ZoneVerifier("customer", Base64.getEncoder().encodeToString(key));
+
+  @Test
+  public void cbcJson() throws Exception {
+    assertRoundTrip(CBC, JSON);
+  }
+
+  @Test
+  public void cbcQuery() throws Exception {
+    assertRoundTrip(CBC, QUERY);
+  }
+
+  @Test
+  public void gcmJson() throws Exception {
+    assertRoundTrip(GCM, JSON);
+  }
+
+  @Test
+  public void gcmQuery() throws Exception {
+    assertRoundTrip(GCM, QUERY);
+  }
+
+  @Test
+  public void decoderReadsFields() throws Exception {
+    for (int method : new int[] {CBC, GCM}) {
+      for (String struct : new String[] {JSON, QUERY}) {
+        Signature5Decoder.Payload payload =
+            new Signature5Decoder(key).decode(encrypt(key, method, ZONE_ID, struct));
+
+        assertEquals(ZONE_ID, payload.getZoneId());
+        assertEquals("6", payload.getResult());
+        assertEquals("73.109.57.137", payload.getIpV4());
+        assertEquals("2001:db8::1", payload.getIpV6());
+        assertEquals(USER_AGENT, payload.getUserAgent());
+      }
+    }
+  }
+
+  @Test
+  public void wrongKey() throws Exception {
+    ZoneVerifier other =
+        new ZoneVerifier("customer", Base64.getEncoder().encodeToString(bytes(32, 2)));
+
+    for (int method : new int[] {CBC, GCM}) {
+      assertError(
+          SignatureVerificationError.DECRYPTION_FAILED,
+          other.verify(signature(method, ZONE_ID, JSON), USER_AGENT, "73.109.57.137"));
+    }
+  }
+
+  @Test
+  public void keyOfWrongLength() throws Exception {
+    ZoneVerifier other =
+        new ZoneVerifier("customer", Base64.getEncoder().encodeToString(bytes(5, 2)));
+
+    assertError(
+        SignatureVerificationError.INVALID_KEY,
+        other.verify(signature(GCM, ZONE_ID, JSON), USER_AGENT, "73.109.57.137"));
+  }
+
+  @Test
+  public void truncatedHeader() throws Exception {
+    byte[] signature = encrypt(key, GCM, ZONE_ID, JSON);
+    for (int length : new int[] {1, 3, 10, 11, 12, 40}) {
+      byte[] truncated = new byte[length];
+      System.arraycopy(signature, 0, truncated, 0, length);
+
+      assertError(
+          SignatureVerificationError.PREMATURE_END,
+          verifier.verify(encode(truncated), USER_AGENT, "73.109.57.137"));
+    }
+  }
+
+  @Test
+  public void badGcmTag() throws Exception {
+    byte[] signature = encrypt(key, GCM, ZONE_ID, JSON);
+    // Tag follows header, method and iv
+    signature[11 + 2 + 12] ^= 1;
+
+    assertError(
+        SignatureVerificationError.DECRYPTION_FAILED,
+        verifier.verify(encode(signature), USER_AGENT, "73.109.57.137"));
+  }
+
+  @Test
+  public void unsupportedMethodAndStruct() throws Exception {
+    assertError(
+        SignatureVerificationError.UNSUPPORTED_PAYLOAD,
+        verifier.verify(signature(0x0300, ZONE_ID, JSON), USER_AGENT, "73.109.57.137"));
+    assertError(
+        SignatureVerificationError.UNSUPPORTED_PAYLOAD,
+        verifier.verify(signature(CBC, ZONE_ID, "Sa:0:{}"), USER_AGENT, "73.109.57.137"));
+    assertError(
+        SignatureVerificationError.UNSUPPORTED_PAYLOAD,
+        verifier.verify(signature(CBC, ZONE_ID, "J{\"result\":"), USER_AGENT, "73.109.57.137"));
+  }
+
+  @Test
+  public void zoneId() throws Exception {
+    String signature = signature(GCM, ZONE_ID, JSON);
+
+    assertSame(
+        Verdict.PROXY,
+        verifier
+            .withZoneId(ZONE_ID)
+            .verify(signature, USER_AGENT, "73.109.57.137")
+            .getVerdictType());
+    assertError(
+        SignatureVerificationError.ZONE_MISMATCH,
+        verifier.withZoneId(ZONE_ID + 1).verify(signature, USER_AGENT, "73.109.57.137"));
+  }
+
+  @Test
+  public void mismatchedRequest() throws Exception {
+    String signature = signature(CBC, ZONE_ID, JSON);
+
+    assertError(
+        SignatureVerificationError.NO_VERDICT,
+        verifier.verify(signature, USER_AGENT, "73.109.57.138"));
+    assertError(
+        SignatureVerificationError.NO_VERDICT,
+        verifier.verify(signature, "other", "73.109.57.137"));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void cannotBeDecodedWithoutKey() throws Exception {
+    DecodedSignature.decode(signature(CBC, ZONE_ID, JSON));
+  }
+
+  @Test
+  public void threadsHaveOwnCiphers() throws Exception {
+    List<String> signatures = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      signatures.add(signature(i % 2 == 0 ? CBC : GCM, ZONE_ID, i % 3 == 0 ? JSON : QUERY));
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<SignatureVerificationResult>> results = new ArrayList<>();
+      for (int round = 0; round < 20; round++) {
+        for (String signature : signatures) {
+          results.add(pool.submit(() -> verifier.verify(signature, USER_AGENT, "73.109.57.137")));
+        }
+      }
+      for (Future<SignatureVerificationResult> result : results) {
+        assertSame(Verdict.PROXY, result.get().getVerdictType());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private void assertRoundTrip(int method, String struct) throws Exception {
+    String signature = signature(method, ZONE_ID, struct);
+
+    SignatureVerificationResult result =
+        verifier.verify(signature, USER_AGENT, "10.0.0.1", "73.109.57.137");
+    assertNull(result.getError(), result.getError());
+    assertSame(Verdict.PROXY, result.getVerdictType());
+    assertEquals("73.109.57.137", result.getIpAddress());
+    assertEquals(1, result.getIpAddressIndex());
+    assertNull(result.getRequestTime());
+
+    result = verifier.verify(signature, USER_AGENT, "2001:DB8:0::1");
+    assertSame(Verdict.PROXY, result.getVerdictType());
+    assertEquals("2001:db8::1", result.getIpAddress());
+
+    result =
+        verifier.verify(
+            ByteBuffer.wrap(signature.getBytes(StandardCharsets.US_ASCII)),
+            ByteBuffer.wrap(USER_AGENT.getBytes(StandardCharsets.UTF_8)),
+            ByteBuffer.wrap("73.109.57.137".getBytes(StandardCharsets.US_ASCII)));
+    assertSame(Verdict.PROXY, result.getVerdictType());
+  }
+
+  private static void assertError(
+      SignatureVerificationError expected, SignatureVerificationResult result) {
+    assertSame(result.getError(), expected, result.getErrorCode());
+  }
+
+  private String signature(int method, long zoneId, String struct) throws Exception {
+    return encode(encrypt(key, method, zoneId, struct));
+  }
+
+  /** @return signature of version 5 with payload encrypted by given method, iv depends on struct */
+  private static byte[] encrypt(byte[] key, int method, long zoneId, String struct)
+      throws Exception {
+    byte[] plain = struct.getBytes(StandardCharsets.UTF_8);
+    SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+    ByteBuffer payload = ByteBuffer.allocate(2 + 12 + 16 + plain.length + 32);
+    payload.put((byte) method).put((byte) (method >>> 8));
+
+    if (method == GCM) {
+      byte[] iv = bytes(12, struct.hashCode());
+      Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(Cipher.ENCRYPT_MODE, keySpec, new GCMParameterSpec(128, iv));
+      byte[] encrypted = cipher.doFinal(plain);
+      int dataLength = encrypted.length - 16;
+      // Tag is placed before the data
+      payload.put(iv).put(encrypted, dataLength, 16).put(encrypted, 0, dataLength);
+    } else {
+      byte[] iv = bytes(16, struct.hashCode());
+      Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+      cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(iv));
+      payload.put(iv).put(cipher.doFinal(plain));
+    }
+
+    int length = payload.position();
+    ByteBuffer signature = ByteBuffer.allocate(11 + length);
+    signature.put((byte) 5).putShort((short) length).putLong(zoneId);
+    signature.put(payload.array(), 0, length);
+    return signature.array();
+  }
+
+  private static String encode(byte[] signature) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+  }
+
+  private static byte[] bytes(int length, int seed) {
+    byte[] bytes = new byte[length];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+}
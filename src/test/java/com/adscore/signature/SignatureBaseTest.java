@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Test;
+
+/** HMAC of the base assembled in parts equals HMAC of the whole base computed by JCE */
+public class SignatureBaseTest {
+
+  private static final String[] USER_AGENTS = {
+    "", "Mozilla/5.0 (X11; Linux x86_64)", "UA żółć 😀", repeat('a', 300)
+  };
+
+  private static final String[] IP_ADDRESSES = {"73.109.57.137", "2001:db8::5", "", "ż"};
+
+  @Test
+  public void keyShorterThanBlock() throws Exception {
+    assertMatchesJce(10);
+  }
+
+  @Test
+  public void keyOfBlockLength() throws Exception {
+    assertMatchesJce(64);
+  }
+
+  @Test
+  public void keyLongerThanBlock() throws Exception {
+    assertMatchesJce(65);
+    assertMatchesJce(200);
+  }
+
+  private static void assertMatchesJce(int keyLength) throws Exception {
+    byte[] key = new byte[keyLength];
+    new Random(keyLength).nextBytes(key);
+    Mac jce = Mac.getInstance("HmacSHA256");
+    jce.init(new SecretKeySpec(key, "HmacSHA256"));
+    SignatureBase base = new SignatureBase(SignatureVerifierUtils.createMac(key));
+
+    for (String userAgent : USER_AGENTS) {
+      for (CharSequence agent : new CharSequence[] {userAgent, utf8(userAgent)}) {
+        base.reset(1600000000, 1600000001, agent);
+
+        for (String ipAddress : IP_ADDRESSES) {
+          base.setIpAddress(ipAddress);
+
+          for (char verdict : SignatureVerifierService.VERDICT_CODES) {
+            String whole = verdict + "\n1600000000\n1600000001\n" + ipAddress + "\n" + userAgent;
+            byte[] expected = jce.doFinal(whole.getBytes(StandardCharsets.UTF_8));
+            ByteSlice token = new ByteSlice(expected, 0, expected.length);
+
+            assertTrue(whole, base.matches(verdict, token));
+            assertFalse(whole, base.matches(verdict == '0' ? '3' : '0', token));
+          }
+        }
+      }
+    }
+  }
+
+  private static CharSequence utf8(String text) {
+    return new ByteSequence(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static String repeat(char c, int count) {
+    StringBuilder builder = new StringBuilder(count);
+    for (int i = 0; i < count; i++) {
+      builder.append(c);
+    }
+    return builder.toString();
+  }
+}
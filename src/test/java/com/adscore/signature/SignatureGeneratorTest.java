@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Signatures issued by the generator are accepted by the verifier with the expected outcome */
+public class SignatureGeneratorTest {
+
+  private static final String KEY =
+      Base64.getEncoder()
+          .encodeToString("generator_test_zone_key".getBytes(StandardCharsets.UTF_8));
+
+  private static final String USER_AGENT =
+      "Mozilla/5.0 (Linux; Android 9; SM-J530F) AppleWebKit/537.36 (KHTML, like Gecko) żółć";
+
+  private static final String IP_V4 = "73.109.57.137";
+  private static final String IP_V6 = "2001:db8::5";
+
+  /**
+   * Version 4 "proxy" signature for {@link #VECTOR_USER_AGENT}, 73.109.57.137 and 2001:db8::5,
+   * issued at 1600000000 with {@link #VECTOR_KEY}. Tokens were computed with JCE HmacSHA256 and the
+   * signature is accepted by the original string based verifier.
+   */
+  private static final String VECTOR =
+      "BAUAX14QAAFfXhAAgQHBACCsB1SRjEA_YaJn1GIIa3-FZuLQ72p8lRibfKLmfjbBGMMAIDgUCck4B7ojCA7bmH88BZND"
+          + "3mSDBqOeAjdKxkEavE_D";
+
+  /** Base64 of "fixed_vector_zone_key" */
+  private static final String VECTOR_KEY = "Zml4ZWRfdmVjdG9yX3pvbmVfa2V5";
+
+  private static final String VECTOR_USER_AGENT =
+      "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) "
+          + "Chrome/86.0.4240.75 Safari/537.36";
+
+  private static final int VECTOR_TIME = 1_600_000_000;
+
+  private final SignatureGenerator generator = new SignatureGenerator("customer", KEY);
+  private final ZoneVerifier verifier = new ZoneVerifier("customer", KEY);
+  private final int now = (int) SignatureVerifierService.currentEpochInSeconds();
+
+  private Path directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("signature-generator");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (String name : new String[] {"input.tsv", "expected.tsv", "output.tsv"}) {
+      Files.deleteIfExists(directory.resolve(name));
+    }
+    Files.delete(directory);
+  }
+
+  @Test
+  public void version4IpV4() {
+    for (Verdict verdict : Verdict.values()) {
+      String signature = generator.generate(verdict.getName(), now, now, IP_V4, null, USER_AGENT);
+      SignatureVerificationResult result =
+          verifier.verify(signature, USER_AGENT, "10.0.0.1", IP_V4);
+
+      assertVerified(verdict, result);
+      assertEquals(IP_V4, result.getIpAddress());
+      assertEquals(1, result.getIpAddressIndex());
+    }
+  }
+
+  @Test
+  public void version4IpV6() {
+    for (Verdict verdict : Verdict.values()) {
+      String signature = generator.generate(verdict.getName(), now, now, IP_V4, IP_V6, USER_AGENT);
+      SignatureVerificationResult result =
+          verifier.verify(signature, USER_AGENT, "10.0.0.1", "2001:DB8:0:0::5");
+
+      assertVerified(verdict, result);
+      assertEquals(IP_V6, result.getIpAddress());
+      assertEquals(1, result.getIpAddressIndex());
+    }
+  }
+
+  @Test
+  public void fixedVector() {
+    assertEquals(
+        VECTOR,
+        new SignatureGenerator("customer", VECTOR_KEY)
+            .generate("proxy", VECTOR_TIME, VECTOR_TIME, IP_V4, IP_V6, VECTOR_USER_AGENT));
+
+    ZoneVerifier zoneVerifier = new ZoneVerifier("customer", VECTOR_KEY, (Integer) null);
+    SignatureVerificationResult result = zoneVerifier.verify(VECTOR, VECTOR_USER_AGENT, IP_V4);
+    assertVerified(Verdict.PROXY, VECTOR_TIME, result);
+    assertEquals(IP_V4, result.getIpAddress());
+
+    result = zoneVerifier.verify(VECTOR, VECTOR_USER_AGENT, "10.0.0.1", "2001:DB8:0:0::5");
+    assertVerified(Verdict.PROXY, VECTOR_TIME, result);
+    assertEquals(IP_V6, result.getIpAddress());
+    assertEquals(1, result.getIpAddressIndex());
+
+    assertVerified(
+        Verdict.PROXY,
+        VECTOR_TIME,
+        SignatureVerifier.verify(
+            VECTOR, VECTOR_USER_AGENT, "customer", VECTOR_KEY, true, (Integer) null, IP_V4));
+    assertSame(
+        SignatureVerificationError.NO_VERDICT,
+        zoneVerifier.verify(VECTOR, VECTOR_USER_AGENT, "73.109.57.138").getErrorCode());
+    assertTrue(
+        new ZoneVerifier("customer", VECTOR_KEY, 60)
+            .verify(VECTOR, VECTOR_USER_AGENT, IP_V4)
+            .isExpired());
+  }
+
+  @Test
+  public void version3() {
+    for (Verdict verdict : Verdict.values()) {
+      String signature = generator.generate3(verdict.getName(), now, now, IP_V4, USER_AGENT);
+
+      assertVerified(verdict, verifier.verify(signature, USER_AGENT, IP_V4));
+    }
+  }
+
+  @Test
+  public void masterRole() {
+    SignatureGenerator master = new SignatureGenerator("master", KEY);
+    String signature = master.generate("proxy", now, now, IP_V4, IP_V6, USER_AGENT);
+
+    assertVerified(
+        Verdict.PROXY, new ZoneVerifier("master", KEY).verify(signature, USER_AGENT, IP_V4));
+    assertSame(
+        SignatureVerificationError.SIGN_ROLE_MISMATCH,
+        verifier.verify(signature, USER_AGENT, IP_V4).getErrorCode());
+  }
+
+  @Test
+  public void mismatchedRequest() {
+    String signature = generator.generate("ok", now, now, IP_V4, IP_V6, USER_AGENT);
+
+    assertSame(
+        SignatureVerificationError.NO_VERDICT,
+        verifier.verify(signature, USER_AGENT + " ", IP_V4).getErrorCode());
+    assertSame(
+        SignatureVerificationError.NO_VERDICT,
+        verifier.verify(signature, USER_AGENT, "73.109.57.138", "2001:db8::6").getErrorCode());
+    assertSame(
+        SignatureVerificationError.NO_VERDICT,
+        new ZoneVerifier("customer", "b3RoZXJfem9uZV9rZXk=")
+            .verify(signature, USER_AGENT, IP_V4)
+            .getErrorCode());
+  }
+
+  @Test
+  public void expired() {
+    String signature = generator.generate("ok", now - 600, now - 600, IP_V4, null, USER_AGENT);
+
+    assertTrue(verifier.verify(signature, USER_AGENT, IP_V4).isExpired());
+    assertVerified(
+        Verdict.OK,
+        now - 600,
+        new ZoneVerifier("customer", KEY, (Integer) null).verify(signature, USER_AGENT, IP_V4));
+  }
+
+  @Test
+  public void bulk() throws Exception {
+    Path input = directory.resolve("input.tsv");
+    Path expected = directory.resolve("expected.tsv");
+    Path output = directory.resolve("output.tsv");
+    int rows = 20_000;
+
+    generator.generateBulk(input, expected, rows, 42);
+    Map<String, Long> outcomes =
+        new BulkVerifier(new ZoneVerifier("customer", KEY, 60)).verify(input, output);
+
+    assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(output));
+    assertEquals(rows, outcomes.values().stream().mapToLong(Long::longValue).sum());
+    for (Verdict verdict : Verdict.values()) {
+      assertTrue(verdict.getName(), outcomes.get(verdict.getName()) > 0);
+    }
+    assertTrue(outcomes.get("expired") > 0);
+  }
+
+  private void assertVerified(Verdict verdict, SignatureVerificationResult result) {
+    assertVerified(verdict, now, result);
+    assertFalse(result.isExpired());
+  }
+
+  private static void assertVerified(
+      Verdict verdict, int time, SignatureVerificationResult result) {
+    assertNull(result.getError(), result.getError());
+    assertSame(verdict, result.getVerdictType());
+    assertEquals(verdict.getName(), result.getVerdict());
+    assertEquals(Integer.valueOf(verdict.getScore()), result.getScore());
+    assertEquals(Integer.valueOf(time), result.getRequestTime());
+    assertEquals(Integer.valueOf(time), result.getSignatureTime());
+  }
+}
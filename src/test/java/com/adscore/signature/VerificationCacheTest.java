@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.adscore.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.Test;
+
+/** Bounds, eviction and lifetime of cached results and entries shared by verifiers */
+public class VerificationCacheTest {
+
+  private static final byte[] KEY = "verification_cache_zone_key".getBytes(StandardCharsets.UTF_8);
+
+  private static final String USER_AGENT = "Mozilla/5.0 (X11; Linux x86_64)";
+  private static final String IP_V4 = "73.109.57.137";
+
+  private final int now = (int) SignatureVerifierService.currentEpochInSeconds();
+  private final VerificationCache.Scope scope = scope(60);
+
+  @Test
+  public void sizeIsBounded() {
+    for (int maximumSize : new int[] {1, 3, 15, 16, 17, 31, 32, 100, 1000}) {
+      VerificationCache cache = new VerificationCache(maximumSize, 60);
+      for (int i = 0; i < maximumSize * 20 + 100; i++) {
+        cache.put(scope, "signature" + i, USER_AGENT, new String[] {IP_V4}, verified(now));
+      }
+
+      assertEquals(maximumSize, cache.size());
+    }
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    VerificationCache cache = new VerificationCache(3, 60);
+    cache.put(scope, "a", USER_AGENT, null, verified(now));
+    cache.put(scope, "b", USER_AGENT, null, verified(now));
+    cache.put(scope, "c", USER_AGENT, null, verified(now));
+    assertNotNull(cache.get(scope, "a", USER_AGENT, null));
+
+    cache.put(scope, "d", USER_AGENT, null, verified(now));
+
+    assertEquals(3, cache.size());
+    assertNull(cache.get(scope, "b", USER_AGENT, null));
+    assertNotNull(cache.get(scope, "a", USER_AGENT, null));
+    assertNotNull(cache.get(scope, "c", USER_AGENT, null));
+    assertNotNull(cache.get(scope, "d", USER_AGENT, null));
+  }
+
+  @Test
+  public void keyIncludesRequest() {
+    VerificationCache cache = new VerificationCache(10, 60);
+    SignatureVerificationResult result = verified(now);
+    cache.put(scope, "a", USER_AGENT, new String[] {IP_V4}, result);
+
+    assertSame(result, cache.get(scope, "a", USER_AGENT, new String[] {IP_V4}));
+    assertNull(cache.get(scope, "b", USER_AGENT, new String[] {IP_V4}));
+    assertNull(cache.get(scope, "a", USER_AGENT + " ", new String[] {IP_V4}));
+    assertNull(cache.get(scope, "a", USER_AGENT, new String[] {IP_V4, IP_V4}));
+    assertNull(cache.get(scope, "a", USER_AGENT, null));
+    assertNull(cache.get(scope(30), "a", USER_AGENT, new String[] {IP_V4}));
+  }
+
+  @Test
+  public void entryDoesNotOutliveSignature() {
+    VerificationCache cache = new VerificationCache(10, 600);
+    cache.put(scope, "valid", USER_AGENT, null, verified(now - 30));
+    cache.put(scope, "expiring", USER_AGENT, null, verified(now - 61));
+    cache.put(scope(null), "expiring", USER_AGENT, null, verified(now - 61));
+
+    assertNotNull(cache.get(scope, "valid", USER_AGENT, null));
+    assertNull(cache.get(scope, "expiring", USER_AGENT, null));
+    assertNotNull(cache.get(scope(null), "expiring", USER_AGENT, null));
+  }
+
+  @Test
+  public void entryExpiresAfterTtl() throws Exception {
+    VerificationCache cache = new VerificationCache(10, 1);
+    cache.put(scope, "a", USER_AGENT, null, verified(now));
+    assertNotNull(cache.get(scope, "a", USER_AGENT, null));
+
+    Thread.sleep(1100);
+
+    assertNull(cache.get(scope, "a", USER_AGENT, null));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void verifiersOfSameConfigurationShareEntries() {
+    String key = Base64.getEncoder().encodeToString(KEY);
+    String signature =
+        new SignatureGenerator("customer", KEY).generate("ok", now, now, IP_V4, null, USER_AGENT);
+    VerificationCache cache = new VerificationCache(10, 60);
+    ZoneVerifier verifier = new ZoneVerifier("customer", key, 60).withCache(cache);
+
+    SignatureVerificationResult result = verifier.verify(signature, USER_AGENT, IP_V4);
+    assertSame(Verdict.OK, result.getVerdictType());
+    assertSame(result, verifier.verify(signature, USER_AGENT, IP_V4));
+    assertSame(
+        result,
+        new ZoneVerifier("customer", key, 60)
+            .withCache(cache)
+            .withListener(new VerificationMetrics())
+            .verify(signature, USER_AGENT, IP_V4));
+    assertEquals(1, cache.size());
+
+    new ZoneVerifier("customer", key, 120).withCache(cache).verify(signature, USER_AGENT, IP_V4);
+    new ZoneVerifier("master", key, 60).withCache(cache).verify(signature, USER_AGENT, IP_V4);
+    new ZoneVerifier("customer", "b3RoZXI=", 60)
+        .withCache(cache)
+        .verify(signature, USER_AGENT, IP_V4);
+    assertEquals(4, cache.size());
+  }
+
+  private static VerificationCache.Scope scope(Integer expiry) {
+    return new VerificationCache.Scope(new SignatureVerifierService("customer", KEY, expiry));
+  }
+
+  private static SignatureVerificationResult verified(int time) {
+    return SignatureVerificationResult.verified(Verdict.OK, IP_V4, 0, time, time, null);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.adscore.signature;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.Test;
+
+/** Histogram buckets and values collected from verifications */
+public class VerificationMetricsTest {
+
+  @Test
+  public void exponentialBuckets() {
+    VerificationMetrics.Histogram histogram = VerificationMetrics.Histogram.exponential(2, 4);
+    for (long value : new long[] {0, 1, 4, 5, 8, 16, 17, 1000}) {
+      histogram.record(value);
+    }
+
+    assertArrayEquals(new long[] {4, 8, 16, Long.MAX_VALUE}, histogram.getBucketUpperBounds());
+    assertArrayEquals(new long[] {3, 2, 1, 2}, histogram.getCounts());
+    assertEquals(8, histogram.getCount());
+    assertEquals(1051, histogram.getSum());
+  }
+
+  @Test
+  public void linearBuckets() {
+    VerificationMetrics.Histogram histogram = VerificationMetrics.Histogram.linear(4);
+    for (long value : new long[] {0, 1, 1, 2, 3, 50}) {
+      histogram.record(value);
+    }
+
+    assertArrayEquals(new long[] {0, 1, 2, Long.MAX_VALUE}, histogram.getBucketUpperBounds());
+    assertArrayEquals(new long[] {1, 2, 1, 2}, histogram.getCounts());
+    assertEquals(57, histogram.getSum());
+  }
+
+  @Test
+  public void hmacAttemptsPerCount() {
+    String key =
+        Base64.getEncoder().encodeToString("metrics_zone_key".getBytes(StandardCharsets.UTF_8));
+    int now = (int) SignatureVerifierService.currentEpochInSeconds();
+    String signature =
+        new SignatureGenerator("customer", key)
+            .generate("ok", now, now, "73.109.57.137", null, "UA");
+    VerificationMetrics metrics = new VerificationMetrics();
+    ZoneVerifier verifier = new ZoneVerifier("customer", key).withListener(metrics);
+
+    verifier.verify(signature, "UA");
+    verifier.verify(signature, "UA", "73.109.57.137");
+    // all verdicts of the first address, then the first verdict of the second one
+    verifier.verify(signature, "UA", "10.0.0.1", "73.109.57.137");
+    verifier.verify(signature, "UA", "10.0.0.1", "10.0.0.2");
+
+    long[] counts = metrics.getHmacAttempts().getCounts();
+    assertEquals(34, counts.length);
+    assertEquals(1, counts[0]);
+    assertEquals(1, counts[1]);
+    assertEquals(1, counts[5]);
+    assertEquals(1, counts[8]);
+    assertEquals(4, metrics.getHmacAttempts().getCount());
+    assertEquals(14, metrics.getHmacAttempts().getSum());
+    assertEquals(Long.valueOf(2), metrics.getOutcomes().get("ok"));
+    assertEquals(Long.valueOf(2), metrics.getErrors().get(SignatureVerificationError.NO_VERDICT));
+  }
+}
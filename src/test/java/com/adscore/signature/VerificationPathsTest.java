@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.adscore.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import javax.crypto.Mac;
+import org.junit.Test;
+
+/**
+ * String, CharSequence, lazy candidates, heap and direct ByteBuffer, decoded signature and static
+ * verification give the same results for valid, mismatched, truncated and malformed signatures.
+ */
+public class VerificationPathsTest {
+
+  private static final String KEY =
+      Base64.getEncoder().encodeToString("verification_paths_key".getBytes(StandardCharsets.UTF_8));
+
+  private static final String USER_AGENT = "Mozilla/5.0 (X11; Linux x86_64) żółć";
+  private static final String IP_V4 = "73.109.57.137";
+  private static final String IP_V6 = "2001:db8::5";
+
+  private static final String[][] ADDRESS_LISTS = {
+    {IP_V4},
+    {"10.0.0.1", "2001:DB8:0:0::5"},
+    {},
+    {"", IP_V4},
+    {"10.0.0.1", "10.0.0.2"},
+    {"2001:db8:::5", IP_V4},
+    {IP_V4, "2001:db8:::5"},
+  };
+
+  private static final Set<SignatureVerificationError> TRUNCATION_ERRORS =
+      EnumSet.of(
+          SignatureVerificationError.INVALID_BASE64_PAYLOAD,
+          SignatureVerificationError.PREMATURE_END,
+          SignatureVerificationError.MASTER_TOKEN_LENGTH_MISMATCH,
+          SignatureVerificationError.CUSTOMER_TOKEN_LENGTH_MISMATCH);
+
+  private final int now = (int) SignatureVerifierService.currentEpochInSeconds();
+  private final SignatureGenerator generator = new SignatureGenerator("customer", KEY);
+
+  @Test
+  public void validSignatures() throws Exception {
+    String[] signatures = {
+      generator.generate("ok", now, now, IP_V4, IP_V6, USER_AGENT),
+      generator.generate("bot", now, now, IP_V4, null, USER_AGENT),
+      generator.generate3("junk", now, now, IP_V4, USER_AGENT),
+      base64(bothRoles(true, 1)),
+      base64(bothRoles(false, 1)),
+      base64(version3()),
+    };
+
+    for (String signature : signatures) {
+      for (String[] addresses : ADDRESS_LISTS) {
+        for (String role : new String[] {"customer", "master"}) {
+          assertSamePaths(role, 60, signature, USER_AGENT, addresses);
+          assertSamePaths(role, null, signature, USER_AGENT + " ", addresses);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void errorCodes() throws Exception {
+    String signature = generator.generate("ok", now, now, IP_V4, IP_V6, USER_AGENT);
+    String old = generator.generate("ok", now - 600, now - 600, IP_V4, null, USER_AGENT);
+
+    assertSame(
+        Verdict.OK, assertSamePaths("customer", 60, signature, USER_AGENT, IP_V4).getVerdictType());
+    assertTrue(assertSamePaths("customer", 60, old, USER_AGENT, IP_V4).isExpired());
+    assertError(
+        SignatureVerificationError.NO_VERDICT,
+        assertSamePaths("customer", 60, signature, USER_AGENT, "10.0.0.1"));
+    assertError(
+        SignatureVerificationError.SIGN_ROLE_MISMATCH,
+        assertSamePaths("master", 60, signature, USER_AGENT, IP_V4));
+    // Malformed addresses are hashed as they are, so they never match
+    assertError(
+        SignatureVerificationError.NO_VERDICT,
+        assertSamePaths("customer", 60, signature, USER_AGENT, "2001:db8:::5", "73.109.57"));
+    assertError(
+        SignatureVerificationError.INVALID_BASE64_PAYLOAD,
+        assertSamePaths("customer", 60, "", USER_AGENT, IP_V4));
+    assertError(
+        SignatureVerificationError.INVALID_BASE64_PAYLOAD,
+        assertSamePaths("customer", 60, "!!!!", USER_AGENT, IP_V4));
+    assertError(
+        SignatureVerificationError.UNSUPPORTED_VERSION,
+        assertSamePaths("customer", 60, base64(new byte[] {9, 0, 0, 0}), USER_AGENT, IP_V4));
+    assertError(
+        SignatureVerificationError.PREMATURE_END,
+        assertSamePaths("customer", 60, base64(new byte[] {4}), USER_AGENT, IP_V4));
+    assertError(
+        SignatureVerificationError.UNSUPPORTED_SIGNATURE,
+        assertSamePaths("customer", 60, base64(bothRoles(true, 2)), USER_AGENT, IP_V4));
+    assertError(
+        SignatureVerificationError.UNRECOGNIZED_SIGNATURE,
+        assertSamePaths("customer", 60, base64(bothRoles(true, 7)), USER_AGENT, IP_V4));
+  }
+
+  @Test
+  public void truncatedSignatures() throws Exception {
+    byte[][] signatures = {bothRoles(true, 1), bothRoles(false, 1), version3()};
+
+    for (byte[] signature : signatures) {
+      for (int length = 0; length < signature.length; length++) {
+        String truncated = base64(Arrays.copyOf(signature, length));
+        for (String role : new String[] {"customer", "master"}) {
+          SignatureVerificationResult result =
+              assertSamePaths(role, null, truncated, USER_AGENT, IP_V4, IP_V6);
+          assertTrue(
+              signature[0] + " " + length + " " + role + ": " + result.getError(),
+              TRUNCATION_ERRORS.contains(result.getErrorCode()));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void batchOfRequests() {
+    String signature = generator.generate("proxy", now, now, IP_V4, IP_V6, USER_AGENT);
+    ZoneVerifier verifier = new ZoneVerifier("customer", KEY);
+    List<VerificationRequest> requests =
+        Arrays.asList(
+            new VerificationRequest(signature, USER_AGENT, IP_V4),
+            new VerificationRequest(signature, USER_AGENT, (String[]) null),
+            new VerificationRequest("", USER_AGENT, IP_V4),
+            new VerificationRequest(signature, USER_AGENT, "10.0.0.1", IP_V6));
+
+    List<SignatureVerificationResult> results = verifier.verifyAll(requests);
+
+    assertEquals(requests.size(), results.size());
+    for (int i = 0; i < requests.size(); i++) {
+      VerificationRequest request = requests.get(i);
+      assertEquals(
+          describe(
+              verifier.verify(
+                  request.getSignature(), request.getUserAgent(), request.getIpAddresses())),
+          describe(results.get(i)));
+    }
+    assertEquals(0, requests.get(1).getIpAddresses().length);
+    assertError(SignatureVerificationError.NO_VERDICT, results.get(1));
+  }
+
+  /**
+   * Verifiers decode only fields of their own role, but the other role's fields are still walked,
+   * so truncated signature is rejected even when the verifier's own token is complete.
+   */
+  @Test
+  public void truncatedFieldsOfOtherRole() throws Exception {
+    byte[] customerFirst = bothRoles(false, 1);
+    byte[] masterFirst = bothRoles(true, 1);
+    byte[] version3 = version3();
+
+    assertError(
+        SignatureVerificationError.PREMATURE_END,
+        assertSamePaths(
+            "customer",
+            null,
+            base64(Arrays.copyOf(customerFirst, customerFirst.length - 1)),
+            USER_AGENT,
+            IP_V4));
+    assertError(
+        SignatureVerificationError.PREMATURE_END,
+        assertSamePaths(
+            "master",
+            null,
+            base64(Arrays.copyOf(masterFirst, masterFirst.length - 1)),
+            USER_AGENT,
+            IP_V4));
+    assertError(
+        SignatureVerificationError.CUSTOMER_TOKEN_LENGTH_MISMATCH,
+        assertSamePaths(
+            "master",
+            null,
+            base64(Arrays.copyOf(version3, version3.length - 1)),
+            USER_AGENT,
+            IP_V4));
+    assertError(
+        SignatureVerificationError.MASTER_TOKEN_LENGTH_MISMATCH,
+        assertSamePaths("customer", null, base64(Arrays.copyOf(version3, 20)), USER_AGENT, IP_V4));
+  }
+
+  /** Verifies signature in every way and checks that all results are equal */
+  private SignatureVerificationResult assertSamePaths(
+      String role, Integer expiry, String signature, String userAgent, String... ipAddresses) {
+    ZoneVerifier verifier = new ZoneVerifier(role, KEY, expiry);
+    SignatureVerificationResult result = verifier.verify(signature, userAgent, ipAddresses);
+    String expected = describe(result);
+    String context = role + " " + signature + " " + Arrays.toString(ipAddresses);
+
+    CharSequence[] sequences = new CharSequence[ipAddresses.length];
+    ByteBuffer[] heap = new ByteBuffer[ipAddresses.length];
+    ByteBuffer[] direct = new ByteBuffer[ipAddresses.length];
+    for (int i = 0; i < ipAddresses.length; i++) {
+      sequences[i] = new StringBuilder(ipAddresses[i]);
+      heap[i] = heap(ipAddresses[i].getBytes(StandardCharsets.US_ASCII));
+      direct[i] = direct(ipAddresses[i].getBytes(StandardCharsets.US_ASCII));
+    }
+    byte[] signatureBytes = signature.getBytes(StandardCharsets.US_ASCII);
+    byte[] userAgentBytes = userAgent.getBytes(StandardCharsets.UTF_8);
+
+    assertEquals(
+        context,
+        expected,
+        describe(
+            verifier.verify(
+                new StringBuilder(signature), new StringBuilder(userAgent), sequences)));
+    assertEquals(
+        context,
+        expected,
+        describe(verifier.verifyCandidates(signature, userAgent, Arrays.asList(sequences))));
+    assertEquals(
+        context,
+        expected,
+        describe(verifier.verify(heap(signatureBytes), heap(userAgentBytes), heap)));
+    assertEquals(
+        context,
+        expected,
+        describe(verifier.verify(direct(signatureBytes), direct(userAgentBytes), direct)));
+    assertEquals(
+        context,
+        expected,
+        describe(
+            SignatureVerifier.verify(signature, userAgent, role, KEY, true, expiry, ipAddresses)));
+
+    DecodedSignature decoded;
+    try {
+      decoded = DecodedSignature.decode(signature);
+    } catch (IllegalArgumentException exp) {
+      assertNotNull(context, result.getErrorCode());
+      assertEquals(context, result.getError(), exp.getMessage());
+      return result;
+    }
+    assertEquals(context, expected, describe(verifier.verify(decoded, userAgent, ipAddresses)));
+
+    return result;
+  }
+
+  private static String describe(SignatureVerificationResult result) {
+    return result.getVerdictType()
+        + " "
+        + result.getScore()
+        + " "
+        + result.getIpAddress()
+        + " "
+        + result.getIpAddressIndex()
+        + " "
+        + result.getRequestTime()
+        + " "
+        + result.getSignatureTime()
+        + " "
+        + result.getExpired()
+        + " "
+        + result.getErrorCode()
+        + " "
+        + result.getError();
+  }
+
+  private static void assertError(
+      SignatureVerificationError expected, SignatureVerificationResult result) {
+    assertSame(result.getError(), expected, result.getErrorCode());
+  }
+
+  /** @return buffer with the bytes at non-zero position, followed by unrelated bytes */
+  private static ByteBuffer heap(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 6);
+    buffer.put(new byte[] {'x', 'y', 'z'}).put(bytes).put(new byte[] {'x', 'y', 'z'});
+    buffer.position(3).limit(3 + bytes.length);
+    return buffer;
+  }
+
+  private static ByteBuffer direct(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 6);
+    buffer.put(new byte[] {'x', 'y', 'z'}).put(bytes).put(new byte[] {'x', 'y', 'z'});
+    buffer.position(3).limit(3 + bytes.length);
+    return buffer;
+  }
+
+  /** @return version 4 signature with "ok" tokens of customer and "proxy" tokens of master role */
+  private byte[] bothRoles(boolean masterFirst, int signType) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(4);
+    out.write(8);
+    out.write(0x00);
+    writeInt(out, now);
+    out.write(0x01);
+    writeInt(out, now);
+    if (masterFirst) {
+      writeRole(out, 0, signType, '6');
+      writeRole(out, 1, signType, '0');
+    } else {
+      writeRole(out, 1, signType, '0');
+      writeRole(out, 0, signType, '6');
+    }
+    return out.toByteArray();
+  }
+
+  /** @return version 3 signature with "proxy" master and "ok" customer token */
+  private byte[] version3() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(3);
+    writeInt(out, now);
+    writeInt(out, now);
+    for (char verdict : new char[] {'6', '0'}) {
+      byte[] token = token(verdict, IP_V4);
+      out.write(1);
+      out.write(0);
+      out.write(token.length);
+      out.write(token);
+    }
+    return out.toByteArray();
+  }
+
+  private void writeRole(ByteArrayOutputStream out, int role, int signType, char verdict)
+      throws Exception {
+    out.write(0x80 | role);
+    out.write(signType);
+    writeToken(out, 0xC0 | role, token(verdict, IP_V4));
+    writeToken(out, 0xC2 | role, token(verdict, IP_V6));
+  }
+
+  private byte[] token(char verdict, String ipAddress) throws Exception {
+    Mac mac = SignatureVerifierUtils.createMac(Base64.getDecoder().decode(KEY));
+    String base = verdict + "\n" + now + "\n" + now + "\n" + ipAddress + "\n" + USER_AGENT;
+    return mac.doFinal(base.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void writeToken(ByteArrayOutputStream out, int fieldId, byte[] token) {
+    out.write(fieldId);
+    out.write(0);
+    out.write(token.length);
+    out.write(token, 0, token.length);
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  private static String base64(byte[] signature) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+  }
+}
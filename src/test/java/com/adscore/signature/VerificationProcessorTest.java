@@ -0,0 +1,454 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.adscore.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Signals of the processor, with batches run by a manual executor, so the order in which batches
+ * finish is controlled by the test
+ */
+public class VerificationProcessorTest {
+
+  private static final String KEY =
+      Base64.getEncoder()
+          .encodeToString("processor_test_zone_key".getBytes(StandardCharsets.UTF_8));
+
+  private static final String USER_AGENT = "Mozilla/5.0 (X11; Linux x86_64)";
+  private static final String IP_ADDRESS = "73.109.57.137";
+
+  private static final int BATCH_SIZE = 2;
+  private static final int MAX_CONCURRENCY = 2;
+  private static final int CAPACITY = BATCH_SIZE * (MAX_CONCURRENCY + 1);
+
+  private final SignatureGenerator generator = new SignatureGenerator("customer", KEY);
+  private final int now = (int) SignatureVerifierService.currentEpochInSeconds();
+
+  private ManualExecutor executor;
+  private Upstream upstream;
+  private Downstream downstream;
+  private VerificationProcessor processor;
+
+  @Before
+  public void setUp() {
+    executor = new ManualExecutor();
+    upstream = new Upstream();
+    downstream = new Downstream();
+    processor =
+        new VerificationProcessor(
+            new ZoneVerifier("customer", KEY), executor, BATCH_SIZE, MAX_CONCURRENCY);
+
+    processor.onSubscribe(upstream);
+    processor.subscribe(downstream);
+  }
+
+  @Test
+  public void requestsUpToCapacity() {
+    assertEquals(CAPACITY, upstream.requested);
+
+    downstream.request(Long.MAX_VALUE);
+    send(0, CAPACITY);
+    assertEquals(CAPACITY, upstream.requested);
+
+    executor.runAll();
+    assertEquals(CAPACITY, downstream.results.size());
+    assertEquals(2 * CAPACITY, upstream.requested);
+  }
+
+  @Test
+  public void limitsConcurrentBatches() {
+    downstream.request(Long.MAX_VALUE);
+    send(0, CAPACITY);
+    assertEquals(MAX_CONCURRENCY, executor.tasks.size());
+
+    // First item is verified right away, the rest accumulate while all batches are busy
+    executor.runFirst();
+    assertEquals(MAX_CONCURRENCY, executor.tasks.size());
+    assertVerdicts(0, 1);
+
+    executor.runAll();
+    assertVerdicts(0, CAPACITY);
+  }
+
+  @Test
+  public void emitsInOrderOfRequests() {
+    downstream.request(Long.MAX_VALUE);
+    send(0, 3);
+    executor.runLast();
+    assertEquals(0, downstream.results.size());
+
+    executor.runAll();
+    assertVerdicts(0, 3);
+  }
+
+  @Test
+  public void completesAfterLastResult() {
+    downstream.request(Long.MAX_VALUE);
+    send(0, 5);
+    processor.onComplete();
+    assertFalse(downstream.completed);
+
+    executor.runLast();
+    executor.runFirst();
+    assertFalse(downstream.completed);
+
+    executor.runAll();
+    assertVerdicts(0, 5);
+    assertTrue(downstream.completed);
+    assertEquals(Collections.singletonList("complete"), downstream.terminalSignals);
+  }
+
+  @Test
+  public void emitsOnlyRequestedResults() {
+    downstream.request(1);
+    send(0, 4);
+    executor.runAll();
+    assertVerdicts(0, 1);
+
+    downstream.request(1);
+    assertVerdicts(0, 2);
+
+    processor.onComplete();
+    downstream.request(1);
+    assertVerdicts(0, 3);
+    assertFalse(downstream.completed);
+
+    downstream.request(1);
+    assertVerdicts(0, 4);
+    assertTrue(downstream.completed);
+  }
+
+  @Test
+  public void slowSubscriberStopsUpstream() {
+    downstream.request(1);
+    send(0, CAPACITY);
+    executor.runAll();
+    // Items are requested again only once there is room for a whole batch
+    assertVerdicts(0, 1);
+    assertEquals(CAPACITY, upstream.requested);
+
+    downstream.request(BATCH_SIZE - 1);
+    assertVerdicts(0, BATCH_SIZE);
+    assertEquals(CAPACITY + BATCH_SIZE, upstream.requested);
+  }
+
+  @Test
+  public void cancelMidBatch() {
+    downstream.request(1);
+    send(0, 4);
+    executor.runFirst();
+    assertVerdicts(0, 1);
+
+    downstream.subscription.cancel();
+    assertTrue(upstream.cancelled);
+
+    executor.runAll();
+    downstream.request(10);
+    processor.onComplete();
+    assertVerdicts(0, 1);
+    assertTrue(downstream.terminalSignals.isEmpty());
+  }
+
+  @Test
+  public void upstreamErrorAfterInFlightBatches() {
+    downstream.request(Long.MAX_VALUE);
+    send(0, 3);
+    IllegalStateException error = new IllegalStateException("upstream failed");
+    processor.onError(error);
+    assertNull(downstream.error);
+
+    executor.runAll();
+    assertVerdicts(0, 3);
+    assertSame(error, downstream.error);
+    assertEquals(Collections.singletonList("error"), downstream.terminalSignals);
+  }
+
+  @Test
+  public void nonPositiveRequestFails() {
+    send(0, 1);
+    downstream.request(0);
+
+    assertTrue(downstream.error instanceof IllegalArgumentException);
+    assertTrue(upstream.cancelled);
+  }
+
+  @Test
+  public void rejectsSecondSubscriber() {
+    Downstream second = new Downstream();
+    processor.subscribe(second);
+
+    assertTrue(second.error instanceof IllegalStateException);
+    assertNull(downstream.error);
+  }
+
+  @Test
+  public void cancelsSecondUpstream() {
+    Upstream second = new Upstream();
+    processor.onSubscribe(second);
+
+    assertTrue(second.cancelled);
+    assertEquals(0, second.requested);
+    assertFalse(upstream.cancelled);
+  }
+
+  @Test
+  public void rejectedBatchFails() {
+    processor =
+        new VerificationProcessor(
+            new ZoneVerifier("customer", KEY),
+            command -> {
+              throw new RejectedExecutionException("shut down");
+            },
+            BATCH_SIZE,
+            MAX_CONCURRENCY);
+    upstream = new Upstream();
+    downstream = new Downstream();
+    processor.onSubscribe(upstream);
+    processor.subscribe(downstream);
+
+    send(0, 1);
+    assertTrue(downstream.error instanceof RejectedExecutionException);
+    assertTrue(upstream.cancelled);
+  }
+
+  @Test(timeout = 60_000)
+  public void keepsOrderOnThreadPool() throws Exception {
+    int count = 5_000;
+    List<VerificationRequest> requests = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      String verdict = Verdict.values()[i % Verdict.values().length].getName();
+      requests.add(
+          new VerificationRequest(
+              generator.generate(verdict, now, now, IP_ADDRESS, null, USER_AGENT),
+              USER_AGENT,
+              IP_ADDRESS));
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      processor = new VerificationProcessor(new ZoneVerifier("customer", KEY), pool, 16, 4);
+      List<SignatureVerificationResult> results = new ArrayList<>();
+      CountDownLatch done = new CountDownLatch(1);
+      Throwable[] failure = new Throwable[1];
+
+      processor.subscribe(
+          new Subscriber<SignatureVerificationResult>() {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+              this.subscription = subscription;
+              subscription.request(7);
+            }
+
+            @Override
+            public void onNext(SignatureVerificationResult result) {
+              results.add(result);
+              if (results.size() % 7 == 0) {
+                subscription.request(7);
+              }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+              failure[0] = throwable;
+              done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+              done.countDown();
+            }
+          });
+      processor.onSubscribe(new Producer(processor, requests));
+
+      assertTrue(done.await(60, TimeUnit.SECONDS));
+      assertNull(failure[0]);
+      downstream.results.addAll(results);
+      assertVerdicts(0, count);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /** Sends requests whose verdicts cycle through all verdicts, starting at given index */
+  private void send(int from, int to) {
+    for (int i = from; i < to; i++) {
+      String verdict = Verdict.values()[i % Verdict.values().length].getName();
+      processor.onNext(
+          new VerificationRequest(
+              generator.generate(verdict, now, now, IP_ADDRESS, null, USER_AGENT),
+              USER_AGENT,
+              IP_ADDRESS));
+    }
+  }
+
+  private void assertVerdicts(int from, int to) {
+    assertEquals(to - from, downstream.results.size());
+    for (int i = from; i < to; i++) {
+      assertSame(
+          Verdict.values()[i % Verdict.values().length],
+          downstream.results.get(i - from).getVerdictType());
+    }
+  }
+
+  private static final class ManualExecutor implements Executor {
+
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void runFirst() {
+      tasks.remove(0).run();
+    }
+
+    void runLast() {
+      tasks.remove(tasks.size() - 1).run();
+    }
+
+    /** Runs tasks until none are left, including ones submitted meanwhile */
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        runFirst();
+      }
+    }
+  }
+
+  /** Sends requests as they are requested, from a thread of its own */
+  private static final class Producer implements Subscription {
+
+    private final Semaphore demand = new Semaphore(0);
+    private final Thread thread;
+    private volatile boolean cancelled;
+
+    Producer(Subscriber<VerificationRequest> subscriber, List<VerificationRequest> requests) {
+      thread =
+          new Thread(
+              () -> {
+                try {
+                  for (VerificationRequest request : requests) {
+                    demand.acquire();
+                    if (cancelled) {
+                      return;
+                    }
+                    subscriber.onNext(request);
+                  }
+                  subscriber.onComplete();
+                } catch (InterruptedException exp) {
+                  Thread.currentThread().interrupt();
+                }
+              });
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    @Override
+    public void request(long n) {
+      demand.release((int) Math.min(n, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      thread.interrupt();
+    }
+  }
+
+  private static final class Upstream implements Subscription {
+
+    private long requested;
+    private boolean cancelled;
+
+    @Override
+    public void request(long n) {
+      requested += n;
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+    }
+  }
+
+  private static final class Downstream implements Subscriber<SignatureVerificationResult> {
+
+    private final List<SignatureVerificationResult> results = new ArrayList<>();
+    private final List<String> terminalSignals = new ArrayList<>();
+    private Subscription subscription;
+    private Throwable error;
+    private boolean completed;
+
+    void request(long n) {
+      subscription.request(n);
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(SignatureVerificationResult result) {
+      assertTrue(terminalSignals.isEmpty());
+      results.add(result);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      terminalSignals.add("error");
+      error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+      terminalSignals.add("complete");
+      completed = true;
+    }
+  }
+}
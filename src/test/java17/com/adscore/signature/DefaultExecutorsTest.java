@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2020 AdScore Technologies DMCC [AE]
+ *
+ * Licensed under MIT License;
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.adscore.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/** Java 17+ layer of the multi-release jar, run by testJava17 against the jar */
+public class DefaultExecutorsTest {
+
+  @Test
+  public void java17LayerIsLoaded() throws Exception {
+    assertNotNull(DefaultExecutors.class.getDeclaredMethod("executor", Class.class, String.class));
+  }
+
+  @Test
+  public void virtualThreadsFromJava21() throws Exception {
+    Executor executor = DefaultExecutors.forBatches();
+    if (Runtime.version().feature() >= 21) {
+      assertNotSame(ForkJoinPool.commonPool(), executor);
+      CompletableFuture<Boolean> virtual = new CompletableFuture<>();
+      executor.execute(
+          () -> {
+            try {
+              virtual.complete(
+                  (Boolean) Thread.class.getMethod("isVirtual").invoke(Thread.currentThread()));
+            } catch (ReflectiveOperationException exp) {
+              virtual.completeExceptionally(exp);
+            }
+          });
+      assertTrue(virtual.get(10, TimeUnit.SECONDS));
+    } else {
+      assertSame(ForkJoinPool.commonPool(), executor);
+    }
+  }
+
+  @Test
+  public void missingFactoryFallsBack() {
+    assertNull(DefaultExecutors.executor(Executors.class, "newMissingExecutor"));
+    assertNull(DefaultExecutors.executor(Executors.class, "newFixedThreadPool"));
+    assertNotNull(DefaultExecutors.executor(Executors.class, "newSingleThreadExecutor"));
+  }
+
+  @Test
+  public void batchOnDefaultExecutor() {
+    String key = "ZGVmYXVsdF9leGVjdXRvcnNfa2V5";
+    int now = (int) SignatureVerifierService.currentEpochInSeconds();
+    String signature =
+        new SignatureGenerator("customer", key)
+            .generate("ok", now, now, "73.109.57.137", null, "UA");
+    List<VerificationRequest> requests = new ArrayList<>();
+    for (int i = 0; i < 1_000; i++) {
+      requests.add(new VerificationRequest(signature, "UA", "73.109.57.137"));
+    }
+
+    for (SignatureVerificationResult result :
+        new ZoneVerifier("customer", key).verifyAll(requests)) {
+      assertEquals(Verdict.OK, result.getVerdictType());
+    }
+  }
+}